@@ -83,5 +83,19 @@ implements RandomDistribution {
 	}
 	
 	
+	/**
+	 * Returns the neperian logarithm of the probability density of a given
+	 * number.
+	 *
+	 * @param n A number.
+	 * @return The logarithm of the probability density of <code>n</code>.
+	 */
+	public double lnProbability(double n)
+	{
+		return -.5 * (Math.log(2. * Math.PI * variance) +
+				(n - mean) * (n - mean) / variance);
+	}
+	
+	
 	private static final long serialVersionUID = 9127329839769283975L;
 }
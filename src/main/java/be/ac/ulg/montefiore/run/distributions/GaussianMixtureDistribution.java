@@ -20,6 +20,10 @@ implements RandomDistribution
 	
 	private GaussianDistribution[] distributions;
 	private double proportions[];
+	/* lnFactors[i] = ln(proportions[i]) - ln(2 * PI * variance_i) / 2, so
+	 that the logarithm of the i-th term of the density is
+	 lnFactors[i] - (n - mean_i)^2 / (2 * variance_i) */
+	private double lnFactors[];
 	
 	
 	/**
@@ -48,6 +52,8 @@ implements RandomDistribution
 		
 		for (int i = 0; i < distributions.length; i++)
 			distributions[i] = new GaussianDistribution(means[i], variances[i]);
+		
+		lnFactors = lnFactors();
 	}
 	
 	
@@ -81,6 +87,20 @@ implements RandomDistribution
 		
 		for (int i = 0; i < proportions.length; i++)
 			this.proportions[i] = proportions[i] / sum;
+		
+		lnFactors = lnFactors();
+	}
+	
+	
+	private double[] lnFactors()
+	{
+		double[] lnFactors = new double[distributions.length];
+		
+		for (int i = 0; i < distributions.length; i++)
+			lnFactors[i] = Math.log(proportions[i]) - .5 *
+				Math.log(2. * Math.PI * distributions[i].variance());
+		
+		return lnFactors;
 	}
 	
 	
@@ -145,5 +165,42 @@ implements RandomDistribution
 	}
 	
 	
+	/**
+	 * Returns the neperian logarithm of the probability density of a given
+	 * number.  The densities of the distributions composing the mixture are
+	 * added using the <i>log-sum-exp</i> method, so that the result is
+	 * finite even if each of them underflows.
+	 *
+	 * @param n A number.
+	 * @return The logarithm of the probability density of <code>n</code>.
+	 */
+	public double lnProbability(double n)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		
+		for (int i = 0; i < distributions.length; i++)
+			max = Math.max(max, lnTerm(i, n));
+		
+		if (max == Double.NEGATIVE_INFINITY)
+			return max;
+		
+		double sum = 0.;
+		for (int i = 0; i < distributions.length; i++)
+			sum += Math.exp(lnTerm(i, n) - max);
+		
+		return max + Math.log(sum);
+	}
+	
+	
+	/* The logarithm of the density of the i-th distribution at n, weighted
+	 by its proportion */
+	private double lnTerm(int i, double n)
+	{
+		double d = n - distributions[i].mean();
+		
+		return lnFactors[i] - .5 * d * d / distributions[i].variance();
+	}
+	
+	
 	private static final long serialVersionUID = 2634624658500627331L;
 }
@@ -17,10 +17,13 @@ implements MultiRandomDistribution
 	final private int dimension;
 	final private double[] mean;
 	final private double[][] covariance;
-	private double[][] covarianceL = null; // covariance' Cholesky decomposition
-	private double[][] covarianceInv = null;
-	private double covarianceDet;
+	/* Computed when first needed; never modified once published, so that
+	 concurrent readers at worst compute it more than once. */
+	private transient volatile Factorization factorization = null;
 	private final static Random randomGenerator = new Random();
+	/* Holds a working vector for each thread computing probabilities */
+	private final static ThreadLocal<double[]> buffers = 
+		new ThreadLocal<double[]>();
 	
 	
 	/**
@@ -94,23 +97,14 @@ implements MultiRandomDistribution
 	}
 	
 	
-	private double[][] covarianceL()
+	private Factorization factorization()
 	{
-		if (covarianceL == null) {
-			covarianceL = SimpleMatrix.decomposeCholesky(covariance);
-			covarianceDet = SimpleMatrix.determinantCholesky(covarianceL);
-		}
+		Factorization f = factorization;
 		
-		return covarianceL;
-	}
-	
-	
-	private double[][] covarianceInv()
-	{
-		if (covarianceInv == null)
-			covarianceInv = SimpleMatrix.inverseCholesky(covarianceL());
+		if (f == null)
+			factorization = f = new Factorization(covariance);
 		
-		return covarianceInv;
+		return f;
 	}
 	
 	
@@ -121,9 +115,7 @@ implements MultiRandomDistribution
 	 */
 	public double covarianceDet()
 	{
-		covarianceL();
-		
-		return covarianceDet;
+		return factorization().det;
 	}
 	
 	
@@ -141,25 +133,84 @@ implements MultiRandomDistribution
 		for (int i = 0; i < dimension; i++)
 			d[i] = randomGenerator.nextGaussian();
 		
-		return SimpleMatrix.plus(SimpleMatrix.times(covarianceL(), d), mean);
+		return SimpleMatrix.plus(SimpleMatrix.times(factorization().l, d),
+				mean);
 	}
 	
 	
 	public double probability(double[] v)
+	{
+		return Math.exp(lnProbability(v));
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability density of a given
+	 * vector.  The logarithm of the determinant of the covariance matrix is
+	 * computed from its Cholesky decomposition, so that the result is finite
+	 * even when the density itself underflows.
+	 * <p>
+	 * The squared Mahalanobis distance is computed by solving a triangular
+	 * system involving the Cholesky decomposition of the covariance matrix;
+	 * no memory is allocated, and the method can be called concurrently.
+	 *
+	 * @param v A vector.
+	 * @return The logarithm of the probability density of <code>v</code>.
+	 */
+	public double lnProbability(double[] v)
 	{
 		if (v.length != dimension)
 			throw new IllegalArgumentException("Argument array size is not " +
 					"compatible with this distribution");
 		
-		double[][] vmm = SimpleMatrix.matrix(SimpleMatrix.minus(v, mean));
+		Factorization f = factorization();
+		double[] y = buffers.get();
+		if (y == null || y.length < dimension)
+			buffers.set(y = new double[dimension]);
 		
-		double expArg =
-			(SimpleMatrix.times(SimpleMatrix.transpose(vmm),
-					SimpleMatrix.times(covarianceInv(), vmm))[0][0]) * -.5;
+		/* Solves L y = v - mean; the distance is the squared norm of y */
+		double distance = 0.;
+		for (int i = 0; i < dimension; i++) {
+			double[] li = f.l[i];
+			double sum = v[i] - mean[i];
+			
+			for (int k = 0; k < i; k++)
+				sum -= li[k] * y[k];
+			
+			y[i] = sum * f.lInvDiagonal[i];
+			distance += y[i] * y[i];
+		}
 		
-		return Math.exp(expArg) / 
-		(Math.pow(2. * Math.PI, ((double) dimension) / 2.) * 
-				Math.pow(covarianceDet(), .5)); 
+		return f.lnNormalizer - .5 * distance;
+	}
+	
+	
+	/*
+	 * The Cholesky decomposition of the covariance matrix and the values
+	 * derived from it.
+	 */
+	private static final class Factorization
+	{
+		/* Lower triangular matrix such that l l' = covariance */
+		final double[][] l;
+		/* lInvDiagonal[i] = 1 / l[i][i] */
+		final double[] lInvDiagonal;
+		final double det;
+		/* ln((2 pi)^(-dimension/2) det^(-1/2)) */
+		final double lnNormalizer;
+		
+		
+		Factorization(double[][] covariance)
+		{
+			l = SimpleMatrix.decomposeCholesky(covariance);
+			lInvDiagonal = new double[l.length];
+			for (int i = 0; i < l.length; i++)
+				lInvDiagonal[i] = 1. / l[i][i];
+			
+			det = SimpleMatrix.determinantCholesky(l);
+			lnNormalizer = -.5 * (l.length * Math.log(2. * Math.PI) +
+					SimpleMatrix.lnDeterminantCholesky(l));
+		}
 	}
 	
 	
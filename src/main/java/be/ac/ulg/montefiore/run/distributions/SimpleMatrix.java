@@ -266,6 +266,24 @@ class SimpleMatrix
 	}
 	
 	
+	/*
+	 * Computes the neperian logarithm of the determinant of a matrix given
+	 * its cholesky matrix decomposition.  Does not overflow nor underflow in
+	 * high dimension.
+	 */
+	static double lnDeterminantCholesky(double[][] l)
+	{
+		if (!isSquare(l))
+			throw new IllegalArgumentException("Matrix is not square");
+		
+		double d = 0.;
+		for (int i = 0; i < nbRows(l); i++)
+			d += Math.log(l[i][i]);
+		
+		return 2. * d;
+	}
+	
+	
 	/* Computes the inverse of a matrix given its cholesky matrix
 	 decomposition. */
 	static double[][] inverseCholesky(double[][] l)
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import be.ac.ulg.montefiore.run.jahmm.ForwardBackwardCalculator.Computation;
+
+
+/**
+ * This class computes the probability, or the most likely state sequence,
+ * of each sequence of a (possibly very large) set of observation sequences
+ * given an HMM.
+ * <p>
+ * The sequences are handled by groups; when an executor is given, the
+ * groups are handled in parallel.  Each thread reuses its own
+ * {@link ForwardBackwardWorkspace} for all its sequences, and the results
+ * are always given in the order of the sequences.  Only a bounded number of
+ * groups are waiting to be handled at any time, so that the sequences can
+ * be read from a stream as they are needed.
+ * <p>
+ * The HMM must not be modified while this object is used.
+ */
+public class BatchCalculator<O extends Observation>
+{
+	private final Hmm<O> hmm;
+	private final ThreadLocal<ForwardBackwardWorkspace> workspaces =
+		new ThreadLocal<ForwardBackwardWorkspace>() {
+		protected ForwardBackwardWorkspace initialValue()
+		{
+			return new ForwardBackwardWorkspace();
+		}
+	};
+	
+	
+	/**
+	 * Creates a batch calculator.
+	 *
+	 * @param hmm A Hidden Markov Model.
+	 */
+	public BatchCalculator(Hmm<O> hmm)
+	{
+		this.hmm = hmm;
+	}
+	
+	
+	/**
+	 * Computes the neperian logarithm of the probability of each sequence in
+	 * the calling thread (see {@link Hmm#lnProbability}).
+	 *
+	 * @param sequences A set of non-empty observation sequences.
+	 * @return An array whose <code>i</code>-th element is the logarithm of
+	 *         the probability of the <code>i</code>-th sequence.
+	 */
+	public double[] lnProbabilities(
+			Iterable<? extends List<? extends O>> sequences)
+	{
+		return lnProbabilities(sequences, null);
+	}
+	
+	
+	/**
+	 * Computes the neperian logarithm of the probability of each sequence
+	 * (see {@link Hmm#lnProbability}).
+	 *
+	 * @param sequences A set of non-empty observation sequences.
+	 * @param executor The executor used to handle the sequences, or
+	 *        <code>null</code> if they must be handled by the calling thread.
+	 * @return An array whose <code>i</code>-th element is the logarithm of
+	 *         the probability of the <code>i</code>-th sequence.
+	 */
+	public double[] lnProbabilities(
+			Iterable<? extends List<? extends O>> sequences,
+			ExecutorService executor)
+	{
+		List<double[]> results = run(sequences, executor,
+				new GroupCalculator<O, double[]>() {
+			public double[] compute(List<List<? extends O>> group)
+			{
+				ForwardBackwardWorkspace workspace = workspaces.get();
+				double[] lnProbabilities = new double[group.size()];
+				
+				for (int i = 0; i < group.size(); i++)
+					lnProbabilities[i] = new ForwardBackwardScaledCalculator(
+							group.get(i), hmm, EnumSet.of(Computation.ALPHA),
+							workspace).lnProbability();
+				
+				return lnProbabilities;
+			}
+		});
+		
+		int nb = 0;
+		for (double[] result : results)
+			nb += result.length;
+		
+		double[] lnProbabilities = new double[nb];
+		nb = 0;
+		for (double[] result : results) {
+			System.arraycopy(result, 0, lnProbabilities, nb, result.length);
+			nb += result.length;
+		}
+		
+		return lnProbabilities;
+	}
+	
+	
+	/**
+	 * Computes the most likely state sequence of each sequence in the
+	 * calling thread (see {@link ViterbiCalculator}).
+	 *
+	 * @param sequences A set of non-empty observation sequences.
+	 * @return An array whose <code>i</code>-th element is the most likely
+	 *         state sequence of the <code>i</code>-th sequence.
+	 */
+	public int[][] mostLikelyStateSequences(
+			Iterable<? extends List<? extends O>> sequences)
+	{
+		return mostLikelyStateSequences(sequences, null);
+	}
+	
+	
+	/**
+	 * Computes the most likely state sequence of each sequence (see
+	 * {@link ViterbiCalculator}).
+	 *
+	 * @param sequences A set of non-empty observation sequences.
+	 * @param executor The executor used to handle the sequences, or
+	 *        <code>null</code> if they must be handled by the calling thread.
+	 * @return An array whose <code>i</code>-th element is the most likely
+	 *         state sequence of the <code>i</code>-th sequence.
+	 */
+	public int[][] mostLikelyStateSequences(
+			Iterable<? extends List<? extends O>> sequences,
+			ExecutorService executor)
+	{
+		/* Only built when needed, and shared with the other users of hmm */
+		final LogHmm<O> lnHmm = hmm.logView();
+		List<int[][]> results = run(sequences, executor,
+				new GroupCalculator<O, int[][]>() {
+			public int[][] compute(List<List<? extends O>> group)
+			{
+				int[][] stateSequences = new int[group.size()][];
+				
+				for (int i = 0; i < group.size(); i++)
+					stateSequences[i] = new ViterbiCalculator(group.get(i),
+							lnHmm).stateSequence();
+				
+				return stateSequences;
+			}
+		});
+		
+		List<int[]> stateSequences = new ArrayList<int[]>();
+		for (int[][] result : results)
+			stateSequences.addAll(Arrays.asList(result));
+		
+		return stateSequences.toArray(new int[stateSequences.size()][]);
+	}
+	
+	
+	/* Computes the result of a group of sequences */
+	private interface GroupCalculator<O extends Observation, R>
+	{
+		public R compute(List<List<? extends O>> group);
+	}
+	
+	
+	/*
+	 * Divides the sequences in groups and returns the results of the groups,
+	 * in the order of the sequences (see SequenceGroups).
+	 */
+	private <R> List<R> run(Iterable<? extends List<? extends O>> sequences,
+			ExecutorService executor, final GroupCalculator<O, R> calculator)
+	{
+		final List<R> results = new ArrayList<R>();
+		
+		SequenceGroups.run(sequences, new SequenceGroups.Handler<O, R>() {
+			public R compute(int first, List<List<? extends O>> group)
+			{
+				return calculator.compute(group);
+			}
+			
+			public void add(R result)
+			{
+				results.add(result);
+			}
+		}, executor, 2 * Runtime.getRuntime().availableProcessors());
+		
+		return results;
+	}
+}
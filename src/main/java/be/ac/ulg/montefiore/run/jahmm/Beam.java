@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.Arrays;
+
+
+/**
+ * This class describes which states are kept at each time step by the beam
+ * search algorithms ({@link BeamViterbiCalculator} and
+ * {@link BeamForwardCalculator}).
+ * <p>
+ * A state is <i>active</i> at a given time step if its score (the
+ * logarithm of its <i>delta</i> or <i>alpha</i> value) is at most
+ * <code>width</code> below the best score of that time step, and if at most
+ * <code>maxStates - 1</code> states have a better score.  Only the active
+ * states are expanded at the next time step.
+ */
+public class Beam
+{
+	private final double width;
+	private final int maxStates;
+	
+	
+	/**
+	 * Creates a new beam.
+	 *
+	 * @param width The maximal difference between the best score of a time
+	 *        step and the score of an active state (a neperian logarithm);
+	 *        <code>Double.POSITIVE_INFINITY</code> if there is no such limit.
+	 * @param maxStates The maximal number of active states at each time step;
+	 *        <code>0</code> if there is no such limit.
+	 */
+	public Beam(double width, int maxStates)
+	{
+		if (!(width >= 0.) || maxStates < 0)
+			throw new IllegalArgumentException("Positive number expected");
+		
+		this.width = width;
+		this.maxStates = maxStates;
+	}
+	
+	
+	/**
+	 * Returns the width of this beam.
+	 *
+	 * @return The maximal difference between the best score of a time step
+	 *         and the score of an active state.
+	 */
+	public double width()
+	{
+		return width;
+	}
+	
+	
+	/**
+	 * Returns the maximal number of active states.
+	 *
+	 * @return The maximal number of active states at each time step, or
+	 *         <code>0</code> if there is no such limit.
+	 */
+	public int maxStates()
+	{
+		return maxStates;
+	}
+	
+	
+	/*
+	 * Removes the states that are not active from states[0..nb-1], keeping
+	 * the order of the others, and returns the number of active states.  The
+	 * score of a state i is scores[i]; the scores of the states removed are
+	 * set to -infinity.  The states whose score is -infinity are never
+	 * active.  The work array must be at least nb elements long.
+	 */
+	int prune(int[] states, int nb, double[] scores, double[] work)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < nb; k++)
+			if (scores[states[k]] > max)
+				max = scores[states[k]];
+		
+		double cutoff = max - width;
+		int nbTies = Integer.MAX_VALUE;
+		
+		if (maxStates > 0 && nb > maxStates) {
+			for (int k = 0; k < nb; k++)
+				work[k] = scores[states[k]];
+			Arrays.sort(work, 0, nb);
+			
+			double kth = work[nb - maxStates];
+			if (kth >= cutoff) {
+				cutoff = kth;
+				
+				/* The number of states scoring kth that can be kept */
+				nbTies = maxStates;
+				for (int k = nb - 1; work[k] > kth; k--)
+					nbTies--;
+			}
+		}
+		
+		int kept = 0;
+		for (int k = 0; k < nb; k++) {
+			int i = states[k];
+			double score = scores[i];
+			
+			if (score != Double.NEGATIVE_INFINITY && (score > cutoff ||
+					(score == cutoff && nbTies-- > 0)))
+				states[kept++] = i;
+			else
+				scores[i] = Double.NEGATIVE_INFINITY;
+		}
+		
+		return kept;
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import be.ac.ulg.montefiore.run.jahmm.ForwardBackwardCalculator.Computation;
+
+
+/**
+ * This class computes an approximation of the probability of an observation
+ * sequence given an HMM, only summing over the state sequences going
+ * through the states kept by a {@link Beam}.
+ * <p>
+ * At each time step, only the successors of the active states are
+ * considered, and the observation probabilities are only computed for those
+ * states.  The probability computed is a lower bound of the exact
+ * probability, which can be computed by a
+ * {@link ForwardBackwardLogCalculator} to check the approximation.
+ */
+public class BeamForwardCalculator
+{
+	private double lnProbability;
+	private int[] nbActiveStates;
+	private boolean checked;
+	private double exactLnProbability;
+	
+	
+	/**
+	 * Computes an approximation of the probability of an observation
+	 * sequence given the logarithmic view of an HMM.
+	 *
+	 * @param oseq An observations sequence.
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param beam The beam used to prune the states.
+	 */
+	public <O extends Observation>
+	BeamForwardCalculator(List<? extends O> oseq, LogHmm<O> hmm, Beam beam)
+	{
+		this(oseq, hmm, beam, false);
+	}
+	
+	
+	/**
+	 * Computes an approximation of the probability of an observation
+	 * sequence given the logarithmic view of an HMM.
+	 *
+	 * @param oseq An observations sequence.
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param beam The beam used to prune the states.
+	 * @param check If <code>true</code>, the exact probability is also
+	 *        computed using a {@link ForwardBackwardLogCalculator}, so that
+	 *        the {@link #exactLnProbability} method can be used.
+	 */
+	public <O extends Observation>
+	BeamForwardCalculator(List<? extends O> oseq, LogHmm<O> hmm, Beam beam,
+			boolean check)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		int nbStates = hmm.nbStates();
+		/* The transition probabilities, taken out of the logarithmic domain
+		 once per HMM */
+		SparseTransitions a = hmm.transitions();
+		/* lnAlpha[i] = ln(alpha_t(i)) - lnOffset; meaningful for the
+		 candidate states of time t only */
+		double[] lnAlpha = new double[nbStates];
+		/* alpha[i] = alpha_t(i) / exp(lnOffset + max); meaningful for the
+		 active states of time t only */
+		double[] alpha = new double[nbStates];
+		double[] sums = new double[nbStates];
+		int[] marks = new int[nbStates];
+		int[] candidates = new int[nbStates];
+		int[] states = new int[nbStates];
+		int nbActive = 0;
+		double[] work = new double[nbStates];
+		double lnOffset = 0.;
+		
+		nbActiveStates = new int[oseq.size()];
+		
+		int t = 0;
+		for (O o : oseq) {
+			int nb = 0;
+			
+			if (t == 0) {
+				for (int i = 0; i < nbStates; i++)
+					if (hmm.lnPi[i] != Double.NEGATIVE_INFINITY) {
+						lnAlpha[i] = hmm.lnPi[i];
+						candidates[nb++] = i;
+					}
+			} else {
+				for (int k = 0; k < nbActive; k++) {
+					int i = states[k];
+					
+					for (int l = a.rowStart[i]; l < a.rowStart[i+1]; l++) {
+						int j = a.columns[l];
+						
+						if (marks[j] != t) {
+							marks[j] = t;
+							sums[j] = 0.;
+							candidates[nb++] = j;
+						}
+						
+						sums[j] += alpha[i] * a.values[l];
+					}
+				}
+				
+				for (int k = 0; k < nb; k++)
+					lnAlpha[candidates[k]] = Math.log(sums[candidates[k]]);
+			}
+			
+			for (int k = 0; k < nb; k++)
+				lnAlpha[candidates[k]] += hmm.lnEmission(candidates[k], o);
+			
+			nb = beam.prune(candidates, nb, lnAlpha, work);
+			if (nb == 0) {
+				lnProbability = Double.NEGATIVE_INFINITY;
+				break;
+			}
+			
+			double max = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < nb; k++)
+				if (lnAlpha[candidates[k]] > max)
+					max = lnAlpha[candidates[k]];
+			
+			double sum = 0.;
+			for (int k = 0; k < nb; k++) {
+				int i = candidates[k];
+				sum += alpha[i] = Math.exp(lnAlpha[i] - max);
+			}
+			
+			/* The alpha values are divided by their sum to avoid underflows */
+			for (int k = 0; k < nb; k++)
+				alpha[candidates[k]] /= sum;
+			lnOffset += max + Math.log(sum);
+			lnProbability = lnOffset;
+			
+			int[] tmp = states;
+			states = candidates;
+			candidates = tmp;
+			nbActive = nb;
+			nbActiveStates[t++] = nb;
+		}
+		
+		if (check) {
+			exactLnProbability = new ForwardBackwardLogCalculator(oseq, hmm,
+					EnumSet.of(Computation.ALPHA),
+					new ForwardBackwardWorkspace()).lnProbability();
+			checked = true;
+		}
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the given
+	 * observation sequence, summed over the state sequences not pruned.
+	 *
+	 * @return The approximation of <code>ln(P[O|H])</code>, where
+	 *         <code>O</code> is the given observation sequence and
+	 *         <code>H</code> the given HMM.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+	
+	
+	/**
+	 * Returns the number of states kept at each time step.
+	 *
+	 * @return An array whose <code>t</code>-th element is the number of
+	 *         active states at time <code>t</code>; the elements following
+	 *         the first null element are null.
+	 */
+	public int[] nbActiveStates()
+	{
+		return nbActiveStates.clone();
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the exact probability of the given
+	 * observation sequence.  This value is never lower than
+	 * {@link #lnProbability()}.
+	 *
+	 * @return The value computed by a {@link ForwardBackwardLogCalculator}.
+	 * @throws UnsupportedOperationException If the exactness has not been
+	 *         checked.
+	 */
+	public double exactLnProbability()
+	{
+		if (!checked)
+			throw new UnsupportedOperationException("Exactness has not " +
+					"been checked");
+		
+		return exactLnProbability;
+	}
+}
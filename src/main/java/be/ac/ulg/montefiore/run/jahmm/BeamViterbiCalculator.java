@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class computes an approximation of the most probable state sequence
+ * matching a given observation sequence (given an HMM), only following the
+ * states kept by a {@link Beam}.
+ * <p>
+ * At each time step, only the successors of the active states are
+ * considered, and the observation probabilities are only computed for those
+ * states, so that a step costs O(K S) instead of O(N<sup>2</sup>), where
+ * <i>K</i> is the number of active states and <i>S</i> the mean number of
+ * successors of a state.  The result is exact if the most likely state
+ * sequence is never pruned; the exactness can be checked by comparing the
+ * result with the one of {@link ViterbiCalculator}.
+ */
+public class BeamViterbiCalculator
+{
+	private int[] stateSequence;
+	private double lnProbability;
+	private int[] nbActiveStates;
+	private boolean checked;
+	private double exactLnProbability;
+	private int nbStateErrors;
+	
+	
+	/**
+	 * Computes an approximation of the most likely state sequence matching
+	 * an observation sequence given the logarithmic view of an HMM.
+	 *
+	 * @param oseq An observations sequence.
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param beam The beam used to prune the states.
+	 * @throws IllegalArgumentException If every state sequence not pruned
+	 *         has a null probability.
+	 */
+	public <O extends Observation>
+	BeamViterbiCalculator(List<? extends O> oseq, LogHmm<O> hmm, Beam beam)
+	{
+		this(oseq, hmm, beam, false);
+	}
+	
+	
+	/**
+	 * Computes an approximation of the most likely state sequence matching
+	 * an observation sequence given the logarithmic view of an HMM.
+	 *
+	 * @param oseq An observations sequence.
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param beam The beam used to prune the states.
+	 * @param check If <code>true</code>, the exact most likely state sequence
+	 *        is also computed using a {@link ViterbiCalculator}, so that the
+	 *        {@link #exactLnProbability} and {@link #nbStateErrors} methods
+	 *        can be used.
+	 * @throws IllegalArgumentException If every state sequence not pruned
+	 *         has a null probability.
+	 */
+	public <O extends Observation>
+	BeamViterbiCalculator(List<? extends O> oseq, LogHmm<O> hmm, Beam beam,
+			boolean check)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		int nbStates = hmm.nbStates();
+		SparseTransitions lnA = hmm.lnTransitions();
+		/* delta[i] = ln(delta_t(i)), -infinity if i is not active */
+		double[] delta = new double[nbStates];
+		double[] previousDelta = new double[nbStates];
+		int[] candidates = new int[nbStates];
+		/* psyIndex[j] is the index of the best predecessor of j among the
+		 active states of the previous time step */
+		int[] psyIndex = new int[nbStates];
+		double[] work = new double[nbStates];
+		/* The active states of each time step and the index of their best
+		 predecessor among the active states of the previous time step */
+		int[][] states = new int[oseq.size()][];
+		int[][] psy = new int[oseq.size()][];
+		
+		Arrays.fill(delta, Double.NEGATIVE_INFINITY);
+		Arrays.fill(previousDelta, Double.NEGATIVE_INFINITY);
+		nbActiveStates = new int[oseq.size()];
+		
+		int t = 0;
+		for (O o : oseq) {
+			int nb = 0;
+			
+			if (t == 0) {
+				for (int i = 0; i < nbStates; i++)
+					if (hmm.lnPi[i] != Double.NEGATIVE_INFINITY) {
+						delta[i] = hmm.lnPi[i];
+						candidates[nb++] = i;
+					}
+			} else {
+				double[] tmp = previousDelta;
+				previousDelta = delta;
+				delta = tmp;
+				
+				if (t >= 2)
+					for (int i : states[t-2])
+						delta[i] = Double.NEGATIVE_INFINITY;
+				
+				int[] previousStates = states[t-1];
+				for (int k = 0; k < previousStates.length; k++) {
+					int i = previousStates[k];
+					double previous = previousDelta[i];
+					
+					for (int l = lnA.rowStart[i]; l < lnA.rowStart[i+1]; l++) {
+						int j = lnA.columns[l];
+						double thisDelta = previous + lnA.values[l];
+						
+						/* A sparse HMM can hold null transitions */
+						if (thisDelta == Double.NEGATIVE_INFINITY)
+							continue;
+						
+						if (delta[j] == Double.NEGATIVE_INFINITY)
+							candidates[nb++] = j;
+						
+						if (thisDelta > delta[j]) {
+							delta[j] = thisDelta;
+							psyIndex[j] = k;
+						}
+					}
+				}
+			}
+			
+			for (int k = 0; k < nb; k++)
+				delta[candidates[k]] += hmm.lnEmission(candidates[k], o);
+			
+			nb = beam.prune(candidates, nb, delta, work);
+			if (nb == 0)
+				throw new IllegalArgumentException("Observation sequence has " +
+						"a null probability within the beam");
+			
+			states[t] = new int[nb];
+			System.arraycopy(candidates, 0, states[t], 0, nb);
+			psy[t] = new int[nb];
+			if (t > 0)
+				for (int k = 0; k < nb; k++)
+					psy[t][k] = psyIndex[candidates[k]];
+			nbActiveStates[t] = nb;
+			t++;
+		}
+		
+		int index = 0;
+		int[] lastStates = states[oseq.size() - 1];
+		lnProbability = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < lastStates.length; k++)
+			if (delta[lastStates[k]] > lnProbability) {
+				lnProbability = delta[lastStates[k]];
+				index = k;
+			}
+		
+		stateSequence = new int[oseq.size()];
+		for (t = oseq.size() - 1; t >= 0; t--) {
+			stateSequence[t] = states[t][index];
+			index = psy[t][index];
+		}
+		
+		if (check) {
+			ViterbiCalculator vc = new ViterbiCalculator(oseq, hmm);
+			int[] exactStateSequence = vc.stateSequence();
+			
+			exactLnProbability = vc.lnProbability();
+			for (t = 0; t < stateSequence.length; t++)
+				if (stateSequence[t] != exactStateSequence[t])
+					nbStateErrors++;
+			checked = true;
+		}
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the given
+	 * observation sequence on the state sequence found.
+	 *
+	 * @return <code>ln(P[O,S|H])</code> where <code>O</code> is the given
+	 *         observation sequence, <code>H</code> the given HMM and
+	 *         <code>S</code> the state sequence found.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+	
+	
+	/**
+	 * Returns a (clone of) the array containing the state sequence found.
+	 *
+	 * @return The state sequence; the i-th value of the array is the index
+	 *         of the i-th state of the state sequence.
+	 */
+	public int[] stateSequence()
+	{
+		return stateSequence.clone();
+	}
+	
+	
+	/**
+	 * Returns the number of states kept at each time step.
+	 *
+	 * @return An array whose <code>t</code>-th element is the number of
+	 *         active states at time <code>t</code>.
+	 */
+	public int[] nbActiveStates()
+	{
+		return nbActiveStates.clone();
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the given
+	 * observation sequence on the exact most likely state sequence.  This
+	 * value is never lower than {@link #lnProbability()}; they are equal if
+	 * the most likely state sequence was found.
+	 *
+	 * @return The value computed by a {@link ViterbiCalculator}.
+	 * @throws UnsupportedOperationException If the exactness has not been
+	 *         checked.
+	 */
+	public double exactLnProbability()
+	{
+		if (!checked)
+			throw new UnsupportedOperationException("Exactness has not " +
+					"been checked");
+		
+		return exactLnProbability;
+	}
+	
+	
+	/**
+	 * Returns the number of time steps at which the state sequence found
+	 * differs from the exact most likely state sequence.
+	 *
+	 * @return The number of states that differ from the ones computed by a
+	 *         {@link ViterbiCalculator}.
+	 * @throws UnsupportedOperationException If the exactness has not been
+	 *         checked.
+	 */
+	public int nbStateErrors()
+	{
+		if (!checked)
+			throw new UnsupportedOperationException("Exactness has not " +
+					"been checked");
+		
+		return nbStateErrors;
+	}
+}
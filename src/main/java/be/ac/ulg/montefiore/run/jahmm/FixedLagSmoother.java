@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class computes, for a stream of observations, the probability of
+ * each state of an HMM at a given time given the observations up to a fixed
+ * number of time steps (the <i>lag</i>) later.
+ * <p>
+ * The normalized <i>alpha</i> vectors (see {@link ForwardFilter}) and the
+ * observation probabilities of the last <i>L+1</i> observations are kept in
+ * a circular buffer, where <i>L</i> is the lag.  When observation
+ * <i>t+L</i> is received, a (normalized) backward pass over this window
+ * gives the <i>beta</i> vector of time <i>t</i>, and thus the probability of
+ * each state at time <i>t</i> given observations <i>0</i> to <i>t+L</i>.
+ * Each observation is thus handled in O(L N<sup>2</sup>) and the memory
+ * used is O(L N + N<sup>2</sup>), where <i>N</i> is the number of states of
+ * the HMM, whatever the length of the stream.
+ * <p>
+ * The parameters of the HMM are copied when this object is built; later
+ * modifications of the HMM are not taken into account.
+ */
+public class FixedLagSmoother<O extends Observation>
+{
+	private final int nbStates;
+	private final int lag;
+	private final StateProbabilitiesListener listener;
+	private final double[] pi;
+	/* a[i * nbStates + j] = a_ij */
+	private final double[] a;
+	/* aTransposed[j * nbStates + i] = a_ij */
+	private final double[] aTransposed;
+	private final List<Opdf<O>> opdfs;
+	/* alphas[(t % (lag+1)) * nbStates + i] = P(i(t) = i | O(0),..., O(t)) */
+	private final double[] alphas;
+	/* emissions[(t % (lag+1)) * nbStates + i] = P(O(t) | i(t) = i) */
+	private final double[] emissions;
+	/* Working arrays of the backward pass */
+	private final double[] betas;
+	private final double[] gamma;
+	private final double[] next;
+	/* The time of the last observation */
+	private long t;
+	private double lnProbability;
+	
+	
+	/**
+	 * Creates a smoother which has not seen any observation yet.
+	 *
+	 * @param hmm A Hidden Markov Model.
+	 * @param lag The (positive) number of observations following a time step
+	 *        taken into account to compute the probability of each state at
+	 *        that time step.  If it is <code>0</code>, the probabilities are
+	 *        those computed by a {@link ForwardFilter}.
+	 * @param listener The object receiving, for each observation, the
+	 *        probability of each state.
+	 */
+	public FixedLagSmoother(Hmm<O> hmm, int lag,
+			StateProbabilitiesListener listener)
+	{
+		if (lag < 0)
+			throw new IllegalArgumentException("Positive number expected");
+		
+		nbStates = hmm.nbStates();
+		this.lag = lag;
+		this.listener = listener;
+		pi = new double[nbStates];
+		a = new double[nbStates * nbStates];
+		aTransposed = new double[nbStates * nbStates];
+		opdfs = new ArrayList<Opdf<O>>(nbStates);
+		
+		for (int i = 0; i < nbStates; i++) {
+			pi[i] = hmm.getPi(i);
+			opdfs.add(hmm.getOpdf(i).clone());
+			
+			for (int j = 0; j < nbStates; j++)
+				aTransposed[j * nbStates + i] = a[i * nbStates + j] =
+					hmm.getAij(i, j);
+		}
+		
+		alphas = new double[(lag + 1) * nbStates];
+		emissions = new double[(lag + 1) * nbStates];
+		betas = new double[(lag + 1) * nbStates];
+		gamma = new double[nbStates];
+		next = new double[nbStates];
+		reset();
+	}
+	
+	
+	/**
+	 * Forgets all the observations seen so far, including the ones whose
+	 * state probabilities have not been given yet.
+	 */
+	public void reset()
+	{
+		t = -1;
+		lnProbability = 0.;
+	}
+	
+	
+	/**
+	 * Handles a new observation.  If at least <i>lag</i> observations precede
+	 * it, the state probabilities of the observation received <i>lag</i>
+	 * time steps before are given to the listener before this method
+	 * returns.
+	 *
+	 * @param o The observation following the ones seen so far.
+	 * @throws IllegalArgumentException If the probability of <code>o</code>
+	 *         given the observations seen so far is null; the smoother is
+	 *         then left unchanged.
+	 */
+	public void update(O o)
+	{
+		int u = offset(t + 1);
+		double sum = 0.;
+		
+		for (int j = 0; j < nbStates; j++) {
+			double predicted;
+			
+			if (t < 0)
+				predicted = pi[j];
+			else {
+				int previous = offset(t);
+				int column = j * nbStates;
+				predicted = 0.;
+				
+				for (int i = 0; i < nbStates; i++)
+					predicted += alphas[previous + i] * aTransposed[column + i];
+			}
+			
+			emissions[u + j] = opdfs.get(j).probability(o);
+			sum += next[j] = predicted * emissions[u + j];
+		}
+		
+		if (!(sum > 0.))
+			throw new IllegalArgumentException("Observation has a null " +
+					"probability");
+		
+		for (int j = 0; j < nbStates; j++)
+			alphas[u + j] = next[j] / sum;
+		
+		t++;
+		lnProbability += Math.log(sum);
+		
+		if (t >= lag)
+			smooth(t - lag, t - lag);
+	}
+	
+	
+	/**
+	 * Gives the state probabilities of the observations whose probabilities
+	 * have not been given yet, taking into account all the observations seen,
+	 * and resets this object.
+	 */
+	public void finish()
+	{
+		if (t >= 0)
+			smooth(Math.max(0L, t - lag + 1), t);
+		
+		reset();
+	}
+	
+	
+	/*
+	 * Computes the normalized beta vectors from time t down to time from, and
+	 * gives the state probabilities of times from to to.
+	 */
+	private void smooth(long from, long to)
+	{
+		int u = offset(t);
+		for (int i = 0; i < nbStates; i++)
+			betas[u + i] = 1.;
+		
+		for (long s = t; s > from; s--) {
+			int current = offset(s);
+			int previous = offset(s - 1);
+			double sum = 0.;
+			
+			for (int j = 0; j < nbStates; j++)
+				next[j] = emissions[current + j] * betas[current + j];
+			
+			for (int i = 0; i < nbStates; i++) {
+				int row = i * nbStates;
+				double beta = 0.;
+				
+				for (int j = 0; j < nbStates; j++)
+					beta += a[row + j] * next[j];
+				
+				sum += betas[previous + i] = beta;
+			}
+			
+			for (int i = 0; i < nbStates; i++)
+				betas[previous + i] /= sum;
+		}
+		
+		for (long s = from; s <= to; s++) {
+			int v = offset(s);
+			double sum = 0.;
+			
+			for (int i = 0; i < nbStates; i++)
+				sum += gamma[i] = alphas[v + i] * betas[v + i];
+			
+			for (int i = 0; i < nbStates; i++)
+				gamma[i] /= sum;
+			
+			listener.stateProbabilities(s, gamma);
+		}
+	}
+	
+	
+	/* Returns the index of the first element of time s in the buffers */
+	private int offset(long s)
+	{
+		return (int) (s % (lag + 1)) * nbStates;
+	}
+	
+	
+	/**
+	 * Returns the lag of this smoother.
+	 *
+	 * @return The number of observations following a time step taken into
+	 *         account to compute the state probabilities of that time step.
+	 */
+	public int getLag()
+	{
+		return lag;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the observations
+	 * seen so far.
+	 *
+	 * @return The logarithm of the probability of the observations seen
+	 *         since this object was built or reset (<code>0</code> if there
+	 *         is none).
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+}
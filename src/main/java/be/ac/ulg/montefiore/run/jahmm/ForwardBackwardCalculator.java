@@ -6,7 +6,6 @@
 package be.ac.ulg.montefiore.run.jahmm;
 
 import java.util.EnumSet;
-import java.util.Iterator;
 import java.util.List;
 
 
@@ -15,9 +14,6 @@ import java.util.List;
  * sequence for a given HMM.  Once the probability has been computed, the
  * object holds various information such as the <i>alpha</i> (and possibly
  * <i>beta</i>) array, as described in <i>Rabiner</i> and <i>Juang</i>.
- * <p>
- * Computing the <i>beta</i> array requires a O(1) access time to the 
- * observation sequence to get a theoretically optimal performance.
  */
 public class ForwardBackwardCalculator
 {	
@@ -29,12 +25,20 @@ public class ForwardBackwardCalculator
 	public static enum Computation { ALPHA, BETA };
 	
 	
-	/* alpha[t][i] = P(O(1), O(2),..., O(t+1), i(t+1) = i+1 | hmm), that is the
-	 probability of the beginning of the state sequence (up to time t+1)
-	 with the (t+1)th state being i+1. */
-	protected double[][] alpha = null;
-	protected double[][] beta = null;
+	/* alpha[t * nbStates + i] = P(O(1), O(2),..., O(t+1), i(t+1) = i+1 | hmm),
+	 that is the probability of the beginning of the state sequence (up to
+	 time t+1) with the (t+1)th state being i+1.  The alpha and beta arrays
+	 are owned by the workspace and might be longer than needed.  They were
+	 double[T][nbStates] arrays (alpha[t][i]) before release 0.6.3 (see
+	 CHANGES). */
+	protected double[] alpha = null;
+	protected double[] beta = null;
+	/* emissions[t * nbStates + i] = P(O(t+1) | i(t+1) = i+1); each opdf is
+	 only evaluated once per observation. */
+	protected double[] emissions = null;
 	protected double probability;
+	protected int nbStates;
+	protected ForwardBackwardWorkspace workspace;
 	
 	
 	protected ForwardBackwardCalculator()
@@ -54,10 +58,35 @@ public class ForwardBackwardCalculator
 	public <O extends Observation>
 	ForwardBackwardCalculator(List<? extends O> oseq,
 			Hmm<O> hmm, EnumSet<Computation> flags)
+	{
+		this(oseq, hmm, flags, new ForwardBackwardWorkspace());
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  The <i>alpha</i> and <i>beta</i> arrays
+	 * are stored in a workspace that can be reused by other calculators;
+	 * the results of this object are only valid until that happens.
+	 *
+	 * @param hmm A Hidden Markov Model;
+	 * @param oseq An observation sequence.
+	 * @param flags How the computation should be done. See the
+	 *              {@link Computation Computation} enum.
+	 * @param workspace The workspace holding the arrays used by this object.
+	 */
+	public <O extends Observation>
+	ForwardBackwardCalculator(List<? extends O> oseq,
+			Hmm<O> hmm, EnumSet<Computation> flags,
+			ForwardBackwardWorkspace workspace)
 	{
 		if (oseq.isEmpty())
 			throw new IllegalArgumentException("Invalid empty sequence");
 		
+		this.workspace = workspace;
+		nbStates = hmm.nbStates();
+		computeEmissions(hmm, oseq);
+		
 		if (flags.contains(Computation.ALPHA))
 			computeAlpha(hmm, oseq);
 		
@@ -81,76 +110,98 @@ public class ForwardBackwardCalculator
 	}
 	
 	
+	/* Computes the content of the emissions array */
+	protected <O extends Observation> void
+	computeEmissions(Hmm<? super O> hmm, List<O> oseq)
+	{
+		emissions = workspace.emissions(oseq.size(), hmm.nbStates());
+		
+		int k = 0;
+		for (O o : oseq)
+			for (int i = 0; i < hmm.nbStates(); i++)
+				emissions[k++] = hmm.getOpdf(i).probability(o);
+	}
+	
+	
 	/* Computes the content of the alpha array */
 	protected <O extends Observation> void
 	computeAlpha(Hmm<? super O> hmm, List<O> oseq)
 	{
-		alpha = new double[oseq.size()][hmm.nbStates()];
+		alpha = workspace.alpha(oseq.size(), hmm.nbStates());
 		
 		for (int i = 0; i < hmm.nbStates(); i++)
-			computeAlphaInit(hmm, oseq.get(0), i);
+			computeAlphaInit(hmm, i);
 		
-		Iterator<O> seqIterator = oseq.iterator();
-		if (seqIterator.hasNext())
-			seqIterator.next();
-		
-		for (int t = 1; t < oseq.size(); t++) {
-			O observation = seqIterator.next();
-			
+		for (int t = 1; t < oseq.size(); t++)
 			for (int i = 0; i < hmm.nbStates(); i++)
-				computeAlphaStep(hmm, observation, t, i);
-		}
+				computeAlphaStep(hmm, t, i);
 	}
 	
 	
 	/* Computes alpha[0][i] */
-	protected <O extends Observation> void
-	computeAlphaInit(Hmm<? super O> hmm, O o, int i)
+	protected void computeAlphaInit(Hmm<?> hmm, int i)
 	{
-		alpha[0][i] = hmm.getPi(i) * hmm.getOpdf(i).probability(o);
+		alpha[i] = hmm.getPi(i) * emissions[i];
 	}
 	
 	
-	/* Computes alpha[t][j] (t > 0) */
-	protected <O extends Observation> void 
-	computeAlphaStep(Hmm<? super O> hmm, O o, int t, int j)
+	/* Computes alpha[t][j] (t > 0).  Only the predecessors of j are visited
+	 if the HMM is sparse; otherwise, the transitions reaching j are read from
+	 the contiguous transposed matrix. */
+	protected void computeAlphaStep(Hmm<?> hmm, int t, int j)
 	{
 		double sum = 0.;
+		int previous = (t-1) * nbStates;
+		SparseTransitions sparseA = hmm.sparseTransitions();
+		
+		if (sparseA != null)
+			for (int k = sparseA.columnStart[j]; 
+			k < sparseA.columnStart[j+1]; k++)
+				sum += alpha[previous + sparseA.rows[k]] *
+				sparseA.values[sparseA.positions[k]];
+		else
+			sum = Kernels.dot(alpha, previous, hmm.transposedTransitions(),
+					j * nbStates, nbStates);
 		
-		for (int i = 0; i < hmm.nbStates(); i++)
-			sum += alpha[t-1][i] * hmm.getAij(i, j);		
 
-		alpha[t][j] = sum * hmm.getOpdf(j).probability(o);
+		alpha[t * nbStates + j] = sum * emissions[t * nbStates + j];
 	}
 	
 	
-	/* Computes the content of the beta array.  Needs a O(1) access time
-	 to the elements of oseq to get a theoretically optimal algorithm. */
+	/* Computes the content of the beta array.  The observations are not
+	 read: their probabilities are in the emissions array. */
 	protected <O extends Observation> void 
 	computeBeta(Hmm<? super O> hmm, List<O> oseq)
 	{
-		beta = new double[oseq.size()][hmm.nbStates()];
+		beta = workspace.beta(oseq.size(), hmm.nbStates());
 		
 		for (int i = 0; i < hmm.nbStates(); i++)
-			beta[oseq.size()-1][i] = 1.;
+			beta[(oseq.size()-1) * nbStates + i] = 1.;
 		
 		for (int t = oseq.size()-2; t >= 0; t--)
 			for (int i = 0; i < hmm.nbStates(); i++)
-				computeBetaStep(hmm, oseq.get(t+1), t, i);
+				computeBetaStep(hmm, t, i);
 	}
 	
 	
-	/* Computes beta[t][i] (t < obs. seq.le length - 1) */
-	protected <O extends Observation> void 
-	computeBetaStep(Hmm<? super O> hmm, O o, int t, int i)
+	/* Computes beta[t][i] (t < obs. seq.le length - 1).  Only the successors
+	 of i are visited if the HMM is sparse. */
+	protected void computeBetaStep(Hmm<?> hmm, int t, int i)
 	{
 		double sum = 0.;
+		int next = (t+1) * nbStates;
+		SparseTransitions sparseA = hmm.sparseTransitions();
 		
-		for (int j = 0; j < hmm.nbStates(); j++)
-			sum += beta[t+1][j] * hmm.getAij(i, j) * 
-			hmm.getOpdf(j).probability(o);
+		if (sparseA != null)
+			for (int k = sparseA.rowStart[i]; k < sparseA.rowStart[i+1]; k++) {
+				int j = sparseA.columns[k];
+				sum += beta[next + j] * sparseA.values[k] * emissions[next + j];
+			}
+		else
+			sum = Kernels.dot(beta, next, hmm.transitionRow(i), 0,
+					emissions, next, nbStates);
 		
-		beta[t][i] = sum;
+		beta[t * nbStates + i] = sum;
 	}
 	
 	
@@ -172,7 +223,23 @@ public class ForwardBackwardCalculator
 			throw new UnsupportedOperationException("Alpha array has not " +
 					"been computed");
 		
-		return alpha[t][i];
+		return alpha[t * nbStates + i];
+	}
+	
+	
+	/**
+	 * Returns the probability of an observation of the sequence given a
+	 * state.
+	 * 
+	 * @param t The index of the observation in the sequence that helped
+	 *          generating this object.
+	 * @param i A state index of the HMM that helped generating this object.
+	 * @return The probability (density) of the <code>t</code>-th observation
+	 *         given the state <code>i</code>.
+	 */
+	public double emissionElement(int t, int i)
+	{
+		return emissions[t * nbStates + i];
 	}
 	
 	
@@ -193,7 +260,7 @@ public class ForwardBackwardCalculator
 			throw new UnsupportedOperationException("Beta array has not " +
 					"been computed");
 		
-		return beta[t][i];
+		return beta[t * nbStates + i];
 	}
 	
 	
@@ -205,12 +272,10 @@ public class ForwardBackwardCalculator
 		
 		if (flags.contains(Computation.ALPHA))
 			for (int i = 0; i < hmm.nbStates(); i++) 
-				probability += alpha[oseq.size()-1][i];
+				probability += alpha[(oseq.size()-1) * nbStates + i];
 		else
 			for (int i = 0; i < hmm.nbStates(); i++)
-				probability += 
-					hmm.getPi(i) * 
-					hmm.getOpdf(i).probability(oseq.get(0)) * beta[0][i];
+				probability += hmm.getPi(i) * emissions[i] * beta[i];
 	}
 	
 	
@@ -225,4 +290,16 @@ public class ForwardBackwardCalculator
 	{
 		return probability;
 	}
+	
+	
+	/**
+	 * Return the neperian logarithm of the probability of the sequence that
+	 * generated this object.
+	 *
+	 * @return The probability of the sequence of interest's neperian logarithm.
+	 */
+	public double lnProbability()
+	{
+		return Math.log(probability);
+	}
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.List;
+
+
+/**
+ * This class implements the forward-backward algorithm for very long
+ * sequences.
+ * <p>
+ * Instead of the whole (scaled) <i>alpha</i> array, only one row out of
+ * <i>k = ceil(sqrt(T))</i> is kept, where <i>T</i> is the length of the
+ * sequence.  During the backward pass, the <i>alpha</i> rows of each segment
+ * of <i>k</i> observations are recomputed from the preceding checkpoint, so
+ * that the <i>gamma</i> values and the expected numbers of transitions can
+ * be computed using O(N sqrt(T)) memory (where <i>N</i> is the number of
+ * states of the HMM) at the cost of a second forward pass.  The
+ * <i>xi</i> array is never built.
+ * <p>
+ * The scaling method is the one of {@link ForwardBackwardScaledCalculator}.
+ * The observation sequence must be accessible in O(1).
+ */
+public class ForwardBackwardCheckpointedCalculator
+{
+	private final int nbStates;
+	private final int interval;
+	/* checkpoints[s * nbStates + i] = scaled alpha[s * interval][i] */
+	private final double[] checkpoints;
+	/* checkpointCt[s] = scaling factor of time s * interval */
+	private final double[] checkpointCt;
+	private double lnProbability;
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  Only the forward pass is done.
+	 *
+	 * @param oseq A non-empty observation sequence.
+	 * @param hmm A Hidden Markov Model.
+	 */
+	public <O extends Observation>
+	ForwardBackwardCheckpointedCalculator(List<? extends O> oseq, Hmm<O> hmm)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		nbStates = hmm.nbStates();
+		interval = (int) Math.ceil(Math.sqrt(oseq.size()));
+		
+		int nbCheckpoints = (oseq.size() + interval - 1) / interval;
+		checkpoints = new double[nbCheckpoints * nbStates];
+		checkpointCt = new double[nbCheckpoints];
+		
+		computeForward(oseq, hmm);
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model, and then the probability of each state
+	 * at each time step and the expected numbers of transitions.
+	 *
+	 * @param oseq A non-empty observation sequence.
+	 * @param hmm A Hidden Markov Model.
+	 * @param aijNum An array to which the expected number of transitions from
+	 *        state <code>i</code> to its <code>k</code>-th successor (see
+	 *        {@link Hmm#successor}) is added (<code>aijNum[i][k]</code>).
+	 *        Can be <code>null</code>.
+	 * @param aijDen An array to which the expected number of transitions
+	 *        leaving state <code>i</code> is added (<code>aijDen[i]</code>).
+	 *        Can be <code>null</code>.
+	 * @param listener An object receiving the <i>gamma</i> values; they are
+	 *        given by decreasing time index.  Can be <code>null</code>.
+	 */
+	public <O extends Observation>
+	ForwardBackwardCheckpointedCalculator(List<? extends O> oseq, Hmm<O> hmm,
+			double[][] aijNum, double[] aijDen, GammaListener listener)
+	{
+		this(oseq, hmm);
+		
+		computeBackward(oseq, hmm, aijNum, aijDen, listener);
+	}
+	
+	
+	private <O extends Observation> void
+	computeForward(List<? extends O> oseq, Hmm<O> hmm)
+	{
+		double[] previous = new double[nbStates];
+		double[] current = new double[nbStates];
+		double[] emission = new double[nbStates];
+		
+		lnProbability = 0.;
+		
+		int t = 0;
+		for (O o : oseq) {
+			computeEmission(hmm, o, emission, 0);
+			
+			if (t == 0)
+				for (int i = 0; i < nbStates; i++)
+					current[i] = hmm.getPi(i) * emission[i];
+			else
+				computeAlphaStep(hmm, previous, 0, emission, 0, current, 0);
+			
+			double ct = scale(current, 0);
+			lnProbability += Math.log(ct);
+			
+			if (t % interval == 0) {
+				System.arraycopy(current, 0, checkpoints,
+						(t / interval) * nbStates, nbStates);
+				checkpointCt[t / interval] = ct;
+			}
+			
+			double[] tmp = previous;
+			previous = current;
+			current = tmp;
+			t++;
+		}
+	}
+	
+	
+	private <O extends Observation> void
+	computeBackward(List<? extends O> oseq, Hmm<O> hmm,
+			double[][] aijNum, double[] aijDen, GammaListener listener)
+	{
+		int length = oseq.size();
+		double[] alpha = new double[interval * nbStates];
+		double[] emissions = new double[interval * nbStates];
+		double[] ct = new double[interval];
+		double[] beta = new double[nbStates];
+		double[] nextBeta = new double[nbStates];
+		double[] nextEmission = new double[nbStates];
+		/* next[j] = P(O(t+1) | j) * beta_t+1(j) */
+		double[] next = new double[nbStates];
+		double[] gamma = new double[nbStates];
+		SparseTransitions sparseA = hmm.sparseTransitions();
+		
+		for (int s = checkpointCt.length - 1; s >= 0; s--) {
+			int start = s * interval;
+			int end = Math.min(start + interval, length);
+			
+			/* Recomputes the alpha rows of the segment */
+			System.arraycopy(checkpoints, s * nbStates, alpha, 0, nbStates);
+			ct[0] = checkpointCt[s];
+			computeEmission(hmm, oseq.get(start), emissions, 0);
+			
+			for (int t = start + 1; t < end; t++) {
+				int u = (t - start) * nbStates;
+				
+				computeEmission(hmm, oseq.get(t), emissions, u);
+				computeAlphaStep(hmm, alpha, u - nbStates, emissions, u,
+						alpha, u);
+				ct[t - start] = scale(alpha, u);
+			}
+			
+			for (int t = end - 1; t >= start; t--) {
+				int u = (t - start) * nbStates;
+				
+				if (t == length - 1)
+					for (int i = 0; i < nbStates; i++) {
+						beta[i] = 1. / ct[t - start];
+						gamma[i] = alpha[u + i];
+					}
+				else {
+					for (int j = 0; j < nbStates; j++)
+						next[j] = nextEmission[j] * nextBeta[j];
+					
+					for (int i = 0; i < nbStates; i++) {
+						double sum = 0.;
+						double[] num = (aijNum == null) ? null : aijNum[i];
+						double alphaI = alpha[u + i];
+						
+						if (sparseA != null)
+							for (int index = sparseA.rowStart[i], k = 0;
+							index < sparseA.rowStart[i+1]; index++, k++) {
+								double v = sparseA.values[index] *
+								next[sparseA.columns[index]];
+								
+								if (num != null)
+									num[k] += alphaI * v;
+								sum += v;
+							}
+						else {
+							double[] row = hmm.transitionRow(i);
+							
+							for (int k = 0; k < nbStates; k++) {
+								double v = row[k] * next[k];
+								
+								if (num != null)
+									num[k] += alphaI * v;
+								sum += v;
+							}
+						}
+						
+						beta[i] = sum / ct[t - start];
+						gamma[i] = alphaI * sum;
+						
+						if (aijDen != null)
+							aijDen[i] += gamma[i];
+					}
+				}
+				
+				if (listener != null)
+					listener.gamma(t, gamma);
+				
+				double[] tmp = nextBeta;
+				nextBeta = beta;
+				beta = tmp;
+				System.arraycopy(emissions, u, nextEmission, 0, nbStates);
+			}
+		}
+	}
+	
+	
+	private <O extends Observation> void
+	computeEmission(Hmm<O> hmm, O o, double[] emission, int offset)
+	{
+		for (int i = 0; i < nbStates; i++)
+			emission[offset + i] = hmm.getOpdf(i).probability(o);
+	}
+	
+	
+	private void computeAlphaStep(Hmm<?> hmm, double[] previous, int from,
+			double[] emission, int emissionFrom, double[] current, int to)
+	{
+		SparseTransitions sparseA = hmm.sparseTransitions();
+		double[] aTransposed = hmm.transposedTransitions();
+		
+		for (int j = 0; j < nbStates; j++) {
+			double sum = 0.;
+			
+			if (sparseA != null)
+				for (int k = sparseA.columnStart[j];
+				k < sparseA.columnStart[j+1]; k++)
+					sum += previous[from + sparseA.rows[k]] *
+					sparseA.values[sparseA.positions[k]];
+			else
+				sum = Kernels.dot(previous, from, aTransposed, j * nbStates,
+						nbStates);
+			
+			current[to + j] = sum * emission[emissionFrom + j];
+		}
+	}
+	
+	
+	/* Normalizes a row and returns the normalization factor */
+	private double scale(double[] array, int from)
+	{
+		double sum = 0.;
+		
+		for (int i = from; i < from + nbStates; i++)
+			sum += array[i];
+		
+		for (int i = from; i < from + nbStates; i++)
+			array[i] /= sum;
+		
+		return sum;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the sequence that
+	 * generated this object.
+	 *
+	 * @return The probability of the sequence of interest's neperian logarithm.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+}
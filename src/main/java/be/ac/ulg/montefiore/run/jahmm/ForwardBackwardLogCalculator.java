@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.EnumSet;
+import java.util.List;
+
+
+/**
+ * This class can be used to compute the probability of a given observations
+ * sequence for a given HMM.
+ * <p>
+ * All the computations are done using the neperian logarithms of the
+ * probabilities, thus the {@link #alphaElement(int,int) alphaElement},
+ * {@link #betaElement(int,int) betaElement} and
+ * {@link #emissionElement(int,int) emissionElement} return the logarithms of
+ * the alpha, beta and observation probability elements.  The sums are
+ * computed using the <i>log-sum-exp</i> method (see {@link LogMath}), so
+ * that no scaling is needed and observations with very small (or null)
+ * probabilities do not lead to underflows, whatever the length of the
+ * sequence.  The largest element of each row of the alpha (or beta) array
+ * is factored out once, so that each step only computes one exponential per
+ * state and one logarithm per element.
+ */
+public class ForwardBackwardLogCalculator
+extends ForwardBackwardCalculator
+{
+	private LogHmm<?> lnHmm;
+	private double lnProbability;
+	/* The previous alpha (or next beta) row, divided by its largest element
+	 scaledMax and taken out of the logarithmic domain */
+	private double[] scaled;
+	private double scaledMax;
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  The computations are done in the
+	 * logarithmic domain.
+	 *
+	 * @param hmm A Hidden Markov Model;
+	 * @param oseq An observations sequence.
+	 * @param flags How the computation should be done. See the
+	 *              {@link ForwardBackwardCalculator.Computation}.
+	 * @param workspace The workspace holding the arrays used by this object.
+	 */
+	public <O extends Observation>
+	ForwardBackwardLogCalculator(List<? extends O> oseq,
+			Hmm<O> hmm, EnumSet<Computation> flags,
+			ForwardBackwardWorkspace workspace)
+	{
+		this(oseq, hmm.logView(), flags, workspace);
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given the logarithmic view of a Hidden Markov Model.  The same view
+	 * can be used for any number of sequences.
+	 *
+	 * @param hmm The logarithmic view of a Hidden Markov Model;
+	 * @param oseq An observations sequence.
+	 * @param flags How the computation should be done. See the
+	 *              {@link ForwardBackwardCalculator.Computation}.
+	 * @param workspace The workspace holding the arrays used by this object.
+	 */
+	public <O extends Observation>
+	ForwardBackwardLogCalculator(List<? extends O> oseq,
+			LogHmm<O> hmm, EnumSet<Computation> flags,
+			ForwardBackwardWorkspace workspace)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		this.workspace = workspace;
+		nbStates = hmm.nbStates();
+		lnHmm = hmm;
+		
+		emissions = workspace.emissions(oseq.size(), nbStates);
+		int t = 0;
+		for (O o : oseq)
+			hmm.lnEmissions(o, emissions, nbStates * t++);
+		
+		if (flags.contains(Computation.ALPHA))
+			computeAlpha(null, oseq);
+		
+		if (flags.contains(Computation.BETA))
+			computeBeta(null, oseq);
+		
+		computeProbability(oseq, flags);
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  The computations are done in the
+	 * logarithmic domain.
+	 * @see #ForwardBackwardLogCalculator(List, Hmm, EnumSet,
+	 *      ForwardBackwardWorkspace)
+	 */
+	public <O extends Observation>
+	ForwardBackwardLogCalculator(List<? extends O> oseq,
+			Hmm<O> hmm, EnumSet<Computation> flags)
+	{
+		this(oseq, hmm, flags, new ForwardBackwardWorkspace());
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  This computation computes the
+	 * logarithm of the <code>alpha</code> array as a side effect.
+	 * @see #ForwardBackwardLogCalculator(List, Hmm, EnumSet,
+	 *      ForwardBackwardWorkspace)
+	 */
+	public <O extends Observation>
+	ForwardBackwardLogCalculator(List<? extends O> oseq, Hmm<O> hmm)
+	{
+		this(oseq, hmm, EnumSet.of(Computation.ALPHA));
+	}
+	
+	
+	/* Computes the content of the alpha array (in the logarithmic domain).
+	 The transition probabilities are taken from the logarithmic view of
+	 the HMM; the hmm argument is not used. */
+	protected <O extends Observation> void
+	computeAlpha(Hmm<? super O> hmm, List<O> oseq)
+	{
+		alpha = workspace.alpha(oseq.size(), nbStates);
+		scaled = new double[nbStates];
+		boolean sparse = lnHmm.isSparse();
+		
+		for (int i = 0; i < nbStates; i++)
+			computeAlphaInit(hmm, i);
+		
+		for (int t = 1; t < oseq.size(); t++) {
+			int previous = (t-1) * nbStates;
+			
+			scaledMax = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < nbStates; i++)
+				if (alpha[previous + i] > scaledMax)
+					scaledMax = alpha[previous + i];
+			
+			for (int i = 0; i < nbStates; i++)
+				scaled[i] = Math.exp(alpha[previous + i] - scaledMax);
+			
+			for (int j = 0; j < nbStates; j++)
+				if (sparse)
+					computeSparseAlphaStep(t, j);
+				else
+					computeAlphaStep(hmm, t, j);
+		}
+	}
+	
+	
+	/* Computes ln(alpha[0][i]) */
+	protected void computeAlphaInit(Hmm<?> hmm, int i)
+	{
+		alpha[i] = lnHmm.lnPi[i] + emissions[i];
+	}
+	
+	
+	/* Computes ln(alpha[t][j]) (t > 0) of a non-sparse HMM.  scaled[i] must
+	 be exp(ln(alpha[t-1][i]) - scaledMax): the sum over the predecessors is
+	 a dot product with the column of the transition matrix leading to j,
+	 which is contiguous, and a single logarithm is computed. */
+	protected void computeAlphaStep(Hmm<?> hmm, int t, int j)
+	{
+		double sum = Kernels.dot(scaled, 0, lnHmm.aTransposed(),
+				j * nbStates, nbStates);
+		double lnSum = (sum > 0.) ? scaledMax + Math.log(sum) :
+			lnAlphaSum(t, j);
+		
+		alpha[t * nbStates + j] = lnSum + emissions[t * nbStates + j];
+	}
+	
+	
+	/* Computes ln(alpha[t][j]) (t > 0) visiting the predecessors of j only;
+	 see computeAlphaStep. */
+	private void computeSparseAlphaStep(int t, int j)
+	{
+		SparseTransitions a = lnHmm.transitions();
+		double sum = 0.;
+		
+		for (int k = a.columnStart[j]; k < a.columnStart[j+1]; k++)
+			sum += scaled[a.rows[k]] * a.values[a.positions[k]];
+		
+		double lnSum = (sum > 0.) ? scaledMax + Math.log(sum) :
+			lnAlphaSum(t, j);
+		
+		alpha[t * nbStates + j] = lnSum + emissions[t * nbStates + j];
+	}
+	
+	
+	/* Returns the logarithm of the sum of alpha[t-1][i] * a_ij over i,
+	 computed term by term: this is only needed when all the terms of the
+	 scaled sum have underflowed (or are null). */
+	private double lnAlphaSum(int t, int j)
+	{
+		SparseTransitions lnA = lnHmm.lnTransitions();
+		int previous = (t-1) * nbStates;
+		int from = lnA.columnStart[j], to = lnA.columnStart[j+1];
+		double max = Double.NEGATIVE_INFINITY;
+		
+		for (int k = from; k < to; k++) {
+			double v = alpha[previous + lnA.rows[k]] +
+			lnA.values[lnA.positions[k]];
+			if (v > max)
+				max = v;
+		}
+		
+		double lnSum = max;
+		if (max != Double.NEGATIVE_INFINITY) {
+			double sum = 0.;
+			
+			for (int k = from; k < to; k++)
+				sum += Math.exp(alpha[previous + lnA.rows[k]] +
+						lnA.values[lnA.positions[k]] - max);
+			lnSum += Math.log(sum);
+		}
+		
+		return lnSum;
+	}
+	
+	
+	/* Computes the content of the beta array (in the logarithmic domain).
+	 The hmm argument is not used. */
+	protected <O extends Observation> void
+	computeBeta(Hmm<? super O> hmm, List<O> oseq)
+	{
+		beta = workspace.beta(oseq.size(), nbStates);
+		scaled = new double[nbStates];
+		boolean sparse = lnHmm.isSparse();
+		
+		for (int i = 0; i < nbStates; i++)
+			beta[(oseq.size()-1) * nbStates + i] = 0.;
+		
+		for (int t = oseq.size()-2; t >= 0; t--) {
+			int next = (t+1) * nbStates;
+			
+			scaledMax = Double.NEGATIVE_INFINITY;
+			for (int j = 0; j < nbStates; j++)
+				if (emissions[next + j] + beta[next + j] > scaledMax)
+					scaledMax = emissions[next + j] + beta[next + j];
+			
+			for (int j = 0; j < nbStates; j++)
+				scaled[j] = Math.exp(emissions[next + j] + beta[next + j] -
+						scaledMax);
+			
+			for (int i = 0; i < nbStates; i++)
+				if (sparse)
+					computeSparseBetaStep(t, i);
+				else
+					computeBetaStep(hmm, t, i);
+		}
+	}
+	
+	
+	/* Computes ln(beta[t][i]) (t < obs. seq. length - 1) of a non-sparse
+	 HMM.  scaled[j] must be exp(ln(emission[t+1][j]) + ln(beta[t+1][j]) -
+	 scaledMax); see computeAlphaStep. */
+	protected void computeBetaStep(Hmm<?> hmm, int t, int i)
+	{
+		double sum = Kernels.dot(lnHmm.a(), i * nbStates, scaled, 0,
+				nbStates);
+		
+		beta[t * nbStates + i] = (sum > 0.) ? scaledMax + Math.log(sum) :
+			lnBetaSum(t, i);
+	}
+	
+	
+	/* Computes ln(beta[t][i]) (t < obs. seq. length - 1) visiting the
+	 successors of i only; see computeBetaStep. */
+	private void computeSparseBetaStep(int t, int i)
+	{
+		SparseTransitions a = lnHmm.transitions();
+		double sum = 0.;
+		
+		for (int k = a.rowStart[i]; k < a.rowStart[i+1]; k++)
+			sum += a.values[k] * scaled[a.columns[k]];
+		
+		beta[t * nbStates + i] = (sum > 0.) ? scaledMax + Math.log(sum) :
+			lnBetaSum(t, i);
+	}
+	
+	
+	/* Returns the logarithm of the sum of a_ij * emission[t+1][j] *
+	 beta[t+1][j] over j, computed term by term (see lnAlphaSum). */
+	private double lnBetaSum(int t, int i)
+	{
+		SparseTransitions lnA = lnHmm.lnTransitions();
+		int next = (t+1) * nbStates;
+		int from = lnA.rowStart[i], to = lnA.rowStart[i+1];
+		double max = Double.NEGATIVE_INFINITY;
+		
+		for (int k = from; k < to; k++) {
+			int j = lnA.columns[k];
+			double v = lnA.values[k] + emissions[next + j] + beta[next + j];
+			if (v > max)
+				max = v;
+		}
+		
+		double lnSum = max;
+		if (max != Double.NEGATIVE_INFINITY) {
+			double sum = 0.;
+			
+			for (int k = from; k < to; k++) {
+				int j = lnA.columns[k];
+				sum += Math.exp(lnA.values[k] + emissions[next + j] +
+						beta[next + j] - max);
+			}
+			lnSum += Math.log(sum);
+		}
+		
+		return lnSum;
+	}
+	
+	
+	private void computeProbability(List<?> oseq, EnumSet<Computation> flags)
+	{
+		if (flags.contains(Computation.ALPHA))
+			lnProbability = LogMath.logSumExp(alpha,
+					(oseq.size()-1) * nbStates, oseq.size() * nbStates);
+		else {
+			double[] v = new double[nbStates];
+			
+			for (int i = 0; i < nbStates; i++)
+				v[i] = lnHmm.lnPi[i] + emissions[i] + beta[i];
+			lnProbability = LogMath.logSumExp(v);
+		}
+		
+		probability = Math.exp(lnProbability);
+	}
+	
+	
+	/**
+	 * Return the neperian logarithm of the probability of the sequence that
+	 * generated this object.
+	 *
+	 * @return The probability of the sequence of interest's neperian logarithm.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+}
@@ -48,13 +48,39 @@ extends ForwardBackwardCalculator
 	public <O extends Observation> 
 	ForwardBackwardScaledCalculator(List<? extends O> oseq,
 			Hmm<O> hmm, EnumSet<Computation> flags)
+	{
+		this(oseq, hmm, flags, new ForwardBackwardWorkspace());
+	}
+	
+	
+	/**
+	 * Computes the probability of occurence of an observation sequence
+	 * given a Hidden Markov Model.  The algorithms implemented use scaling
+	 * to avoid underflows.  The arrays are stored in a workspace that can be
+	 * reused by other calculators; the results of this object are only
+	 * valid until that happens.
+	 *
+	 * @param hmm A Hidden Markov Model;
+	 * @param oseq An observations sequence.
+	 * @param flags How the computation should be done. See the
+	 *              {@link ForwardBackwardCalculator.Computation}.
+	 *              The alpha array is always computed.
+	 * @param workspace The workspace holding the arrays used by this object.
+	 */
+	public <O extends Observation> 
+	ForwardBackwardScaledCalculator(List<? extends O> oseq,
+			Hmm<O> hmm, EnumSet<Computation> flags,
+			ForwardBackwardWorkspace workspace)
 	{
 		if (oseq.isEmpty())
 			throw new IllegalArgumentException();
 		
-		ctFactors = new double[oseq.size()];
-		Arrays.fill(ctFactors, 0.);
+		this.workspace = workspace;
+		nbStates = hmm.nbStates();
+		ctFactors = workspace.ctFactors(oseq.size());
+		Arrays.fill(ctFactors, 0, oseq.size(), 0.);
 		
+		computeEmissions(hmm, oseq);
 		computeAlpha(hmm, oseq);
 		
 		if (flags.contains(Computation.BETA))
@@ -81,21 +107,15 @@ extends ForwardBackwardCalculator
 	protected <O extends Observation> void
 	computeAlpha(Hmm<? super O> hmm, List<O> oseq)
 	{	
-		alpha = new double[oseq.size()][hmm.nbStates()];
+		alpha = workspace.alpha(oseq.size(), hmm.nbStates());
 		
 		for (int i = 0; i < hmm.nbStates(); i++)
-			computeAlphaInit(hmm, oseq.get(0), i);
+			computeAlphaInit(hmm, i);
 		scale(ctFactors, alpha, 0);
 		
-		Iterator<? extends O> seqIterator = oseq.iterator();
-		if (seqIterator.hasNext())
-			seqIterator.next();
-		
 		for (int t = 1; t < oseq.size(); t++) {
-			O observation = seqIterator.next();
-			
 			for (int i = 0; i < hmm.nbStates(); i++)
-				computeAlphaStep(hmm, observation, t, i);
+				computeAlphaStep(hmm, t, i);
 			scale(ctFactors, alpha, t);
 		}
 	}
@@ -106,31 +126,32 @@ extends ForwardBackwardCalculator
 	protected <O extends Observation> void 
 	computeBeta(Hmm<? super O> hmm, List<O> oseq)
 	{	
-		beta = new double[oseq.size()][hmm.nbStates()];
+		beta = workspace.beta(oseq.size(), hmm.nbStates());
 		
 		for (int i = 0; i < hmm.nbStates(); i++)
-			beta[oseq.size()-1][i] = 1. / ctFactors[oseq.size()-1];
+			beta[(oseq.size()-1) * nbStates + i] =
+				1. / ctFactors[oseq.size()-1];
 		
 		for (int t = oseq.size() - 2; t >= 0; t--)
 			for (int i = 0; i < hmm.nbStates(); i++) {
-				computeBetaStep(hmm, oseq.get(t+1), t, i);
-				beta[t][i] /= ctFactors[t];
+				computeBetaStep(hmm, t, i);
+				beta[t * nbStates + i] /= ctFactors[t];
 			}
 	}
 	
 	
 	/* Normalize alpha[t] and put the normalization factor in ctFactors[t] */
-	private void scale(double[] ctFactors, double[][] array, int t)
+	private void scale(double[] ctFactors, double[] array, int t)
 	{
-		double[] table = array[t];
+		int from = t * nbStates, to = from + nbStates;
 		double sum = 0.;
 		
-		for (int i = 0; i < table.length; i++)
-			sum += table[i];
+		for (int i = from; i < to; i++)
+			sum += array[i];
 		
 		ctFactors[t] = sum;
-		for (int i = 0; i < table.length; i++) 
-			table[i] /= sum;
+		for (int i = from; i < to; i++) 
+			array[i] /= sum;
 	}
 	
 	
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * This class holds the arrays used by a {@link ForwardBackwardCalculator
+ * ForwardBackwardCalculator} (and its subclasses) to store the <i>alpha</i>
+ * and <i>beta</i> values, as well as the observation probabilities of each
+ * state.
+ * <p>
+ * Each array is a single, contiguous <code>double</code> array in which the
+ * element <code>(t, i)</code> is stored at index
+ * <code>t * nbStates + i</code>.  The arrays only grow: giving the same
+ * workspace to successive calculators means that, once the longest sequence
+ * has been seen, no more memory is allocated.
+ * <p>
+ * The results held by a calculator built using a workspace are only valid
+ * until this workspace is given to another calculator.  A workspace must not
+ * be shared between threads.
+ */
+public class ForwardBackwardWorkspace
+{
+	private double[] alpha = new double[0];
+	private double[] beta = new double[0];
+	private double[] emissions = new double[0];
+	private double[] ctFactors = new double[0];
+	
+	
+	/**
+	 * Creates a new, empty, workspace.
+	 */
+	public ForwardBackwardWorkspace()
+	{
+	}
+	
+	
+	/**
+	 * Creates a new workspace large enough to handle, without further
+	 * allocation, sequences of up to <code>length</code> observations.
+	 *
+	 * @param length The (positive) length of the longest expected sequence.
+	 * @param nbStates The (positive) number of states of the HMMs.
+	 */
+	public ForwardBackwardWorkspace(int length, int nbStates)
+	{
+		alpha(length, nbStates);
+		beta(length, nbStates);
+		emissions(length, nbStates);
+		ctFactors(length);
+	}
+	
+	
+	/* Returns an array holding at least length * nbStates elements */
+	double[] alpha(int length, int nbStates)
+	{
+		int size = size(length, nbStates);
+		
+		if (alpha.length < size)
+			alpha = new double[size];
+		
+		return alpha;
+	}
+	
+	
+	double[] beta(int length, int nbStates)
+	{
+		int size = size(length, nbStates);
+		
+		if (beta.length < size)
+			beta = new double[size];
+		
+		return beta;
+	}
+	
+	
+	double[] emissions(int length, int nbStates)
+	{
+		int size = size(length, nbStates);
+		
+		if (emissions.length < size)
+			emissions = new double[size];
+		
+		return emissions;
+	}
+	
+	
+	double[] ctFactors(int length)
+	{
+		if (ctFactors.length < length)
+			ctFactors = new double[length];
+		
+		return ctFactors;
+	}
+	
+	
+	private static int size(int length, int nbStates)
+	{
+		if (length < 0 || nbStates < 0)
+			throw new IllegalArgumentException("Negative size");
+		
+		long size = (long) length * nbStates;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Sequence too long");
+		
+		return (int) size;
+	}
+}
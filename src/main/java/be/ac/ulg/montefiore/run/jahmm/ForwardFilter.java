@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class computes, one observation at a time, the probability of each
+ * state of an HMM given the observations seen so far, and the probability
+ * of these observations.
+ * <p>
+ * Each new observation updates the normalized <i>alpha</i> vector (see
+ * {@link ForwardBackwardScaledCalculator}) in O(N<sup>2</sup>), where
+ * <i>N</i> is the number of states of the HMM.  The memory used does not
+ * depend on the number of observations, so that this object can be used to
+ * follow a stream of observations of any length.
+ * <p>
+ * The parameters of the HMM are copied when this object is built; later
+ * modifications of the HMM are not taken into account.
+ */
+public class ForwardFilter<O extends Observation>
+{
+	private final int nbStates;
+	private final double[] pi;
+	/* aTransposed[j * nbStates + i] = a_ij */
+	private final double[] aTransposed;
+	private final List<Opdf<O>> opdfs;
+	/* alpha[i] = P(i(t) = i | O(1),..., O(t)) */
+	private double[] alpha;
+	private double[] next;
+	private final double[] emissions;
+	private long nbObservations;
+	private double lnProbability;
+	
+	
+	/**
+	 * Creates a filter which has not seen any observation yet.
+	 *
+	 * @param hmm A Hidden Markov Model.
+	 */
+	public ForwardFilter(Hmm<O> hmm)
+	{
+		nbStates = hmm.nbStates();
+		pi = new double[nbStates];
+		aTransposed = new double[nbStates * nbStates];
+		opdfs = new ArrayList<Opdf<O>>(nbStates);
+		
+		for (int i = 0; i < nbStates; i++) {
+			pi[i] = hmm.getPi(i);
+			opdfs.add(hmm.getOpdf(i).clone());
+			
+			for (int j = 0; j < nbStates; j++)
+				aTransposed[j * nbStates + i] = hmm.getAij(i, j);
+		}
+		
+		alpha = new double[nbStates];
+		next = new double[nbStates];
+		emissions = new double[nbStates];
+		reset();
+	}
+	
+	
+	/*
+	 * Creates a filter which has not seen any observation yet, sharing the
+	 * (never modified) parameters of another filter.
+	 */
+	ForwardFilter(ForwardFilter<O> filter)
+	{
+		nbStates = filter.nbStates;
+		pi = filter.pi;
+		aTransposed = filter.aTransposed;
+		opdfs = filter.opdfs;
+		
+		alpha = new double[nbStates];
+		next = new double[nbStates];
+		emissions = new double[nbStates];
+		reset();
+	}
+	
+	
+	/**
+	 * Forgets all the observations seen so far.
+	 */
+	public void reset()
+	{
+		System.arraycopy(pi, 0, alpha, 0, nbStates);
+		nbObservations = 0;
+		lnProbability = 0.;
+	}
+	
+	
+	/**
+	 * Updates the state probabilities given a new observation.
+	 *
+	 * @param o The observation following the ones seen so far.
+	 * @return The neperian logarithm of the probability of <code>o</code>
+	 *         given the observations seen so far.
+	 * @throws IllegalArgumentException If the probability of <code>o</code>
+	 *         given the observations seen so far is null; the filter is then
+	 *         left unchanged.
+	 */
+	public double update(O o)
+	{
+		for (int j = 0; j < nbStates; j++)
+			emissions[j] = opdfs.get(j).probability(o);
+		
+		double lnObservationProbability = update(emissions);
+		if (Double.isNaN(lnObservationProbability))
+			throw new IllegalArgumentException("Observation has a null " +
+					"probability");
+		
+		return lnObservationProbability;
+	}
+	
+	
+	/*
+	 * Updates the state probabilities given the probability of a new
+	 * observation in each state (emissions[j] for state j).  Returns NaN,
+	 * leaving the filter unchanged, if the observation has a null
+	 * probability.
+	 */
+	double update(double[] emissions)
+	{
+		double sum = 0.;
+		
+		for (int j = 0; j < nbStates; j++) {
+			double predicted;
+			
+			if (nbObservations == 0)
+				predicted = pi[j];
+			else
+				predicted = Kernels.dot(alpha, 0, aTransposed, j * nbStates,
+						nbStates);
+			
+			sum += next[j] = predicted * emissions[j];
+		}
+		
+		if (!(sum > 0.))
+			return Double.NaN;
+		
+		for (int j = 0; j < nbStates; j++)
+			next[j] /= sum;
+		
+		double[] tmp = alpha;
+		alpha = next;
+		next = tmp;
+		
+		nbObservations++;
+		double lnObservationProbability = Math.log(sum);
+		lnProbability += lnObservationProbability;
+		
+		return lnObservationProbability;
+	}
+	
+	
+	/**
+	 * Returns the number of observations seen so far.
+	 *
+	 * @return The number of observations seen since this object was built or
+	 *         reset.
+	 */
+	public long nbObservations()
+	{
+		return nbObservations;
+	}
+	
+	
+	/**
+	 * Returns the probability of being in a given state given the
+	 * observations seen so far.  If no observation has been seen, this is
+	 * the initial probability of the state.
+	 *
+	 * @param stateNb A state number such that
+	 *                <code>0 &le; stateNb &lt; nbStates()</code>
+	 * @return The probability of being in state <code>stateNb</code>.
+	 */
+	public double stateProbability(int stateNb)
+	{
+		return alpha[stateNb];
+	}
+	
+	
+	/**
+	 * Returns the probability of each state given the observations seen so
+	 * far.
+	 *
+	 * @return A copy of the filtered state distribution; its
+	 *         <code>i</code>-th element is the probability of being in
+	 *         state <code>i</code>.
+	 */
+	public double[] stateProbabilities()
+	{
+		return alpha.clone();
+	}
+	
+	
+	/**
+	 * Returns the number of states of the HMM.
+	 *
+	 * @return The number of states of the HMM.
+	 */
+	public int nbStates()
+	{
+		return nbStates;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the observations
+	 * seen so far.
+	 *
+	 * @return The logarithm of the probability of the observations seen
+	 *         since this object was built or reset (<code>0</code> if there
+	 *         is none).
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+}
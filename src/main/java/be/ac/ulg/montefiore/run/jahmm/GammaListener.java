@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Objects implementing this interface receive, one time step at a time,
+ * the probability of each state of an HMM given a whole observation sequence
+ * (that is, the rows of the <i>gamma</i> array as described in
+ * <i>Rabiner</i> and <i>Juang</i>).
+ * <p>
+ * This makes it possible to use these probabilities without ever holding
+ * the whole array in memory.
+ */
+public interface GammaListener
+{
+	/**
+	 * Called once for each element of an observation sequence.
+	 *
+	 * @param t The index of the observation in the sequence.
+	 * @param gamma An array such that <code>gamma[i]</code> is the
+	 *              probability of being in state <code>i</code> at time
+	 *              <code>t</code> given the observation sequence.  This array
+	 *              is reused by the caller and must be copied if needed after
+	 *              this method returns.
+	 */
+	public void gamma(int t, double[] gamma);
+}
@@ -24,6 +24,12 @@ import java.util.*;
  *  from state <i>i</i> to state <i>j</i> (<i>a<sub>i,j</sub></i>).</li>
  *  </ul>
  * <p>
+ * The transition probabilities are either stored in a (dense) square matrix,
+ * or, for HMMs whose states can only be followed by a few states (such as
+ * left-right models), as a sparse matrix holding the transitions allowed
+ * (see {@link #Hmm(double[], double[][], List, boolean)}).  The
+ * algorithms then only visit the allowed transitions.
+ * <p>
  * Important objects extensively used with HMMs are {@link Observation
  * Observation}s, observation sequences and set of observation sequences.
  * An observation sequence is simply a {@link List List} of
@@ -35,7 +41,15 @@ public class Hmm<O extends Observation>
 implements Serializable, Cloneable
 {		
 	private double pi[];
+	/* Exactly one of a and sparseA is null */
 	private double a[][];
+	private SparseTransitions sparseA;
+	/* aTransposed[j * nbStates + i] = a_ij; built on demand if the HMM is
+	 not sparse, and dropped when a transition is modified */
+	private transient volatile double[] aTransposed;
+	/* The logarithmic view of this HMM; built on demand, and dropped when
+	 a parameter is modified */
+	private transient volatile LogHmm<O> logView;
 	private ArrayList<Opdf<O>> opdfs;
 	
 	
@@ -81,25 +95,121 @@ implements Serializable, Cloneable
 	 *        <code>i</code>.  The distributions are not copied.
 	 */
 	public Hmm(double[] pi, double[][] a, List<? extends Opdf<O>> opdfs)
+	{
+		this(pi, a, opdfs, false);
+	}
+	
+	
+	/**
+	 * Creates a new HMM.  All the HMM parameters are given as arguments.
+	 * If the HMM is sparse, only the transitions whose probability is not
+	 * null in <code>a</code> are allowed; the probability of the other
+	 * transitions stays null.
+	 *
+	 * @param pi The initial probability values.  <code>pi[i]</code> is the
+	 *        initial probability of state <code>i</code>. This array is
+	 *        copied. 
+	 * @param a The state transition probability array. <code>a[i][j]</code>
+	 *        is the probability of going from state <code>i</code> to state
+	 *        <code>j</code>.  This array is copied.
+	 * @param opdfs The observation distributions.  <code>opdfs.get(i)</code>
+	 *        is the observation distribution associated with state
+	 *        <code>i</code>.  The distributions are not copied.
+	 * @param sparse <code>true</code> if the transition probabilities must
+	 *        be stored as a sparse matrix.
+	 */
+	public Hmm(double[] pi, double[][] a, List<? extends Opdf<O>> opdfs,
+			boolean sparse)
 	{
 		if (a.length == 0 || pi.length != a.length || 
 				opdfs.size() != a.length)
 			throw new IllegalArgumentException("Wrong parameter");
 		
-		this.pi = pi.clone();
-		this.a = new double[a.length][];
-		
-		for (int i = 0; i < a.length; i++) {
+		for (int i = 0; i < a.length; i++)
 			if (a[i].length != a.length)
 				throw new IllegalArgumentException("'A' is not a square" +
 				"matrix");
-			this.a[i] = a[i].clone();
+		
+		this.pi = pi.clone();
+		this.opdfs = new ArrayList<Opdf<O>>(opdfs);
+		
+		if (sparse)
+			sparseA = sparseTransitions(a);
+		else {
+			this.a = new double[a.length][];
+			
+			for (int i = 0; i < a.length; i++)
+				this.a[i] = a[i].clone();
 		}
+	}
+	
+	
+	/**
+	 * Creates a new sparse HMM (see {@link #isSparse}) whose allowed
+	 * transitions are given row by row (in the <i>compressed sparse
+	 * row</i> format), so that the dense transition matrix is never built.
+	 * The transitions leaving state <code>i</code> are those whose index
+	 * <code>k</code> is such that
+	 * <code>rowStart[i] &le; k &lt; rowStart[i+1]</code>: the
+	 * <code>k</code>-th transition goes to state <code>columns[k]</code>
+	 * with probability <code>values[k]</code>.
+	 *
+	 * @param pi The initial probability values.  <code>pi[i]</code> is the
+	 *        initial probability of state <code>i</code>. This array is
+	 *        copied. 
+	 * @param rowStart The index of the first transition leaving each state,
+	 *        followed by the number of transitions (<code>nbStates + 1</code>
+	 *        elements, the first one being 0).  This array is copied.
+	 * @param columns The state reached by each transition; the states
+	 *        following a given state must be sorted by increasing number.
+	 *        This array is copied.
+	 * @param values The probability of each transition.  This array is
+	 *        copied.
+	 * @param opdfs The observation distributions.  <code>opdfs.get(i)</code>
+	 *        is the observation distribution associated with state
+	 *        <code>i</code>.  The distributions are not copied.
+	 */
+	public Hmm(double[] pi, int[] rowStart, int[] columns, double[] values,
+			List<? extends Opdf<O>> opdfs)
+	{
+		if (pi.length == 0 || opdfs.size() != pi.length)
+			throw new IllegalArgumentException("Wrong parameter");
 		
+		this.pi = pi.clone();
+		sparseA = new SparseTransitions(pi.length, rowStart, columns, values);
 		this.opdfs = new ArrayList<Opdf<O>>(opdfs);
 	}
 	
 	
+	/* Returns the non-null transitions of a square matrix */
+	private static SparseTransitions sparseTransitions(double[][] a)
+	{
+		int nbStates = a.length;
+		int[] rowStart = new int[nbStates + 1];
+		
+		for (int i = 0; i < nbStates; i++) {
+			rowStart[i + 1] = rowStart[i];
+			
+			for (int j = 0; j < nbStates; j++)
+				if (a[i][j] != 0.)
+					rowStart[i + 1]++;
+		}
+		
+		int[] columns = new int[rowStart[nbStates]];
+		double[] values = new double[rowStart[nbStates]];
+		
+		int k = 0;
+		for (int i = 0; i < nbStates; i++)
+			for (int j = 0; j < nbStates; j++)
+				if (a[i][j] != 0.) {
+					columns[k] = j;
+					values[k++] = a[i][j];
+				}
+		
+		return new SparseTransitions(nbStates, rowStart, columns, values);
+	}
+	
+	
 	/**
 	 * Creates a new HMM.  The parameters of the created HMM set to
 	 * <code>null</code> specified and must be set using the appropriate
@@ -157,6 +267,7 @@ implements Serializable, Cloneable
 	public void setPi(int stateNb, double value)
 	{
 		pi[stateNb] = value;
+		logView = null;
 	}
 	
 	
@@ -183,6 +294,7 @@ implements Serializable, Cloneable
 	public void setOpdf(int stateNb, Opdf<O> opdf)
 	{
 		opdfs.set(stateNb, opdf);
+		logView = null;
 	}
 	
 	
@@ -199,6 +311,11 @@ implements Serializable, Cloneable
 	 */
 	public double getAij(int i, int j)
 	{
+		if (sparseA != null) {
+			int k = sparseA.index(i, j);
+			return (k < 0) ? 0. : sparseA.values[k];
+		}
+		
 		return a[i][j];
 	}
 	
@@ -212,10 +329,155 @@ implements Serializable, Cloneable
 	 * @param j The second state number such that
 	 *        <code>0 &le; j &lt; nbStates()</code>.
 	 * @param value The value of <i>A<sub>i,j</sub></i>.
+	 * @throws IllegalArgumentException If this HMM is sparse, the transition
+	 *         is not allowed and <code>value</code> is not null.
 	 */
 	public void setAij(int i, int j, double value)
 	{
-		a[i][j] = value;
+		if (sparseA != null) {
+			int k = sparseA.index(i, j);
+			
+			if (k >= 0)
+				sparseA.values[k] = value;
+			else if (value != 0.)
+				throw new IllegalArgumentException("Transition not allowed " +
+						"in a sparse HMM");
+		} else {
+			a[i][j] = value;
+			aTransposed = null;
+		}
+		
+		logView = null;
+	}
+	
+	
+	/**
+	 * Returns the logarithmic view of this HMM, used by the algorithms
+	 * working in the logarithmic domain.  The view is built on the first call
+	 * and kept until a parameter is modified using {@link #setPi},
+	 * {@link #setAij} or {@link #setOpdf}; unlike the views built by
+	 * {@link LogHmm#LogHmm(Hmm)}, it shares the observation distributions of
+	 * this HMM.
+	 *
+	 * @return The logarithmic view of this HMM.
+	 */
+	public LogHmm<O> logView()
+	{
+		LogHmm<O> logView = this.logView;
+		if (logView == null)
+			this.logView = logView = new LogHmm<O>(this, false);
+		
+		return logView;
+	}
+	
+	
+	/**
+	 * Tells if the transition probabilities of this HMM are stored as a
+	 * sparse matrix.
+	 *
+	 * @return <code>true</code> if only some transitions are allowed.
+	 */
+	public boolean isSparse()
+	{
+		return sparseA != null;
+	}
+	
+	
+	/**
+	 * Returns the number of states that can follow a given state.  If this
+	 * HMM is not sparse, this is the number of states.
+	 *
+	 * @param i A state number such that
+	 *        <code>0 &le; i &lt; nbStates()</code>.
+	 * @return The number of transitions leaving state <code>i</code> whose
+	 *         probability can be different from <code>0</code>.
+	 */
+	public int nbSuccessors(int i)
+	{
+		if (sparseA != null)
+			return sparseA.rowStart[i + 1] - sparseA.rowStart[i];
+		
+		return a.length;
+	}
+	
+	
+	/**
+	 * Returns one of the states that can follow a given state.  The
+	 * successors are numbered by increasing state number; if this HMM is not
+	 * sparse, the <code>k</code>-th successor is state <code>k</code>.
+	 *
+	 * @param i A state number such that
+	 *        <code>0 &le; i &lt; nbStates()</code>.
+	 * @param k A successor number such that
+	 *        <code>0 &le; k &lt; nbSuccessors(i)</code>.
+	 * @return The state number of the <code>k</code>-th successor of
+	 *         <code>i</code>.
+	 */
+	public int successor(int i, int k)
+	{
+		if (sparseA != null)
+			return sparseA.columns[sparseA.rowStart[i] + k];
+		
+		return k;
+	}
+	
+	
+	/**
+	 * Returns the transition probabilities of this HMM stored column by
+	 * column in a single array: the element <code>j * nbStates() + i</code>
+	 * is <i>a<sub>i,j</sub></i>, so that the probabilities of the transitions
+	 * reaching a given state are contiguous.
+	 * <p>
+	 * The array is built on the first call and kept until a transition
+	 * probability is modified.  It is shared and must not be modified.
+	 *
+	 * @return The transposed transition matrix, or <code>null</code> if this
+	 *         HMM is sparse (see {@link #isSparse}).
+	 */
+	public double[] transposedTransitions()
+	{
+		if (sparseA != null)
+			return null;
+		
+		double[] aTransposed = this.aTransposed;
+		if (aTransposed == null) {
+			int nbStates = a.length;
+			aTransposed = new double[nbStates * nbStates];
+			
+			for (int i = 0; i < nbStates; i++)
+				for (int j = 0; j < nbStates; j++)
+					aTransposed[j * nbStates + i] = a[i][j];
+			
+			this.aTransposed = aTransposed;
+		}
+		
+		return aTransposed;
+	}
+	
+	
+	/**
+	 * Returns the probabilities of the transitions leaving a given state,
+	 * stored in a single array: its <code>j</code>-th element is
+	 * <i>a<sub>i,j</sub></i>.  The array is shared and must not be modified.
+	 *
+	 * @param i A state number such that
+	 *        <code>0 &le; i &lt; nbStates()</code>.
+	 * @return The <code>i</code>-th row of the transition matrix, or
+	 *         <code>null</code> if this HMM is sparse (see {@link #isSparse}).
+	 */
+	public double[] transitionRow(int i)
+	{
+		if (sparseA != null)
+			return null;
+		
+		return a[i];
+	}
+	
+	
+	/* Returns the transition matrix of a sparse HMM, or null */
+	SparseTransitions sparseTransitions()
+	{
+		return sparseA;
 	}
 	
 	
@@ -335,10 +597,16 @@ implements Serializable, Cloneable
 		Hmm<O> hmm = new Hmm<O>(nbStates());
 		
 		hmm.pi = pi.clone();
-		hmm.a = a.clone();
 		
-		for (int i = 0; i < a.length; i++)
-			hmm.a[i] = a[i].clone();
+		if (sparseA != null) {
+			hmm.a = null;
+			hmm.sparseA = new SparseTransitions(sparseA, sparseA.values);
+		} else {
+			hmm.a = a.clone();
+			
+			for (int i = 0; i < a.length; i++)
+				hmm.a[i] = a[i].clone();
+		}
 		
 		for (int i = 0; i < hmm.opdfs.size(); i++)
 			hmm.opdfs.set(i, opdfs.get(i).clone());
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * A set of HMMs against which observation sequences are scored, typically
+ * to classify them (the <code>i</code>-th HMM modeling the
+ * <code>i</code>-th class).
+ * <p>
+ * The probability of each observation is computed only once for each
+ * distinct {@link Opdf} object, even if it is shared by several states or
+ * several HMMs (<i>e.g.</i> a shared codebook).  The HMMs are scored at
+ * the same time, by blocks of observations (see {@link ForwardFilter}).
+ * When an executor is given, the emission probabilities of a block and the
+ * HMMs are handled in parallel (see {@link #setNbTasks}).
+ * <p>
+ * When only the most likely HMMs are wanted, the HMMs falling too far
+ * behind are discarded after each block: an HMM is discarded if the
+ * probability of the beginning of the sequence given this HMM is lower than
+ * the <code>k</code>-th best one by more than a given margin (see
+ * {@link #setMargin}).  This is a heuristic: an HMM discarded could have
+ * caught up on the rest of the sequence; the wider the margin, the less
+ * likely this is.  The opdfs only used by discarded HMMs are no longer
+ * evaluated.
+ * <p>
+ * The parameters of the HMMs are copied when this object is built; later
+ * modifications of the HMMs are not taken into account.
+ */
+public class HmmBank<O extends Observation>
+{
+	/* The number of observations handled between two discarding steps */
+	private static final int BLOCK_LENGTH = 64;
+	
+	private final List<ForwardFilter<O>> filters;
+	/* The distinct opdfs, and the index of the opdf of each state of each
+	 HMM in this list */
+	private final List<Opdf<O>> opdfs;
+	private final int[][] opdfIndexes;
+	private double margin = Double.POSITIVE_INFINITY;
+	/* The number of tasks a block is divided in; 0 if it depends on the
+	 executor */
+	private int nbTasks = 0;
+	
+	
+	/**
+	 * Creates a bank of HMMs.
+	 *
+	 * @param hmms The HMMs of this bank.  The opdfs shared by several states
+	 *        are detected by identity.
+	 */
+	public HmmBank(List<? extends Hmm<O>> hmms)
+	{
+		if (hmms.isEmpty())
+			throw new IllegalArgumentException("Empty list of HMMs");
+		
+		Map<Opdf<O>, Integer> indexes = new IdentityHashMap<Opdf<O>, Integer>();
+		filters = new ArrayList<ForwardFilter<O>>(hmms.size());
+		opdfs = new ArrayList<Opdf<O>>();
+		opdfIndexes = new int[hmms.size()][];
+		
+		for (int h = 0; h < hmms.size(); h++) {
+			Hmm<O> hmm = hmms.get(h);
+			filters.add(new ForwardFilter<O>(hmm));
+			opdfIndexes[h] = new int[hmm.nbStates()];
+			
+			for (int i = 0; i < hmm.nbStates(); i++) {
+				Opdf<O> opdf = hmm.getOpdf(i);
+				Integer index = indexes.get(opdf);
+				
+				if (index == null) {
+					index = opdfs.size();
+					indexes.put(opdf, index);
+					opdfs.add(opdf.clone());
+				}
+				
+				opdfIndexes[h][i] = index;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of HMMs of this bank.
+	 *
+	 * @return The number of HMMs.
+	 */
+	public int nbHmms()
+	{
+		return filters.size();
+	}
+	
+	
+	/**
+	 * Returns the number of distinct observation distributions of the HMMs
+	 * of this bank.
+	 *
+	 * @return The number of opdfs evaluated for each observation.
+	 */
+	public int nbOpdfs()
+	{
+		return opdfs.size();
+	}
+	
+	
+	/**
+	 * Returns the margin used to discard HMMs.
+	 *
+	 * @return The margin (a neperian logarithm).
+	 */
+	public double getMargin()
+	{
+		return margin;
+	}
+	
+	
+	/**
+	 * Sets the margin used to discard HMMs when only the most likely HMMs
+	 * are wanted.  By default, the margin is infinite: no HMM is ever
+	 * discarded.
+	 *
+	 * @param margin The (positive) difference between the neperian logarithm
+	 *        of the <code>k</code>-th best probability of the beginning of a
+	 *        sequence and the one of an HMM beyond which this HMM is
+	 *        discarded.
+	 */
+	public void setMargin(double margin)
+	{
+		if (!(margin >= 0.))
+			throw new IllegalArgumentException("Positive number expected");
+		
+		this.margin = margin;
+	}
+	
+	
+	/**
+	 * Returns the number of tasks the work on each block of observations is
+	 * divided in when an executor is given.
+	 *
+	 * @return The number of tasks, or <code>0</code> if it depends on the
+	 *         executor.
+	 */
+	public int getNbTasks()
+	{
+		return nbTasks;
+	}
+	
+	
+	/**
+	 * Sets the number of tasks the work on each block of observations is
+	 * divided in when an executor is given; it should be the number of
+	 * threads of this executor.  By default (<code>0</code>), it is the core
+	 * pool size of a <code>ThreadPoolExecutor</code> (<i>e.g.</i> the
+	 * executors returned by {@link SequenceGroups#newExecutor}), and
+	 * <code>1</code> for the other executors.
+	 *
+	 * @param nb The (positive) number of tasks, or <code>0</code> if it
+	 *        depends on the executor.
+	 */
+	public void setNbTasks(int nb)
+	{
+		if (nb < 0)
+			throw new IllegalArgumentException("Positive number expected");
+		
+		nbTasks = nb;
+	}
+	
+	
+	/**
+	 * Computes the neperian logarithm of the probability of a sequence given
+	 * each HMM of this bank.
+	 *
+	 * @param sequence A non-empty observation sequence.
+	 * @param executor The executor used to score the HMMs, or
+	 *        <code>null</code> if they must be scored by the calling thread.
+	 * @return An array whose <code>h</code>-th element is the logarithm of
+	 *         the probability of <code>sequence</code> given the
+	 *         <code>h</code>-th HMM.
+	 */
+	public double[] lnProbabilities(List<? extends O> sequence,
+			ExecutorService executor)
+	{
+		return lnProbabilities(sequence, filters.size(), executor);
+	}
+	
+	
+	/**
+	 * Computes the neperian logarithm of the probability of a sequence given
+	 * the most likely HMMs of this bank.  The HMMs falling behind the
+	 * <code>k</code>-th best one by more than the margin are discarded.
+	 *
+	 * @param sequence A non-empty observation sequence.
+	 * @param k The (strictly positive) number of HMMs wanted.
+	 * @param executor The executor used to score the HMMs, or
+	 *        <code>null</code> if they must be scored by the calling thread.
+	 * @return An array whose <code>h</code>-th element is the logarithm of
+	 *         the probability of <code>sequence</code> given the
+	 *         <code>h</code>-th HMM, or <code>NaN</code> if this HMM has
+	 *         been discarded.
+	 */
+	public double[] lnProbabilities(List<? extends O> sequence, int k,
+			ExecutorService executor)
+	{
+		if (sequence.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		if (k <= 0)
+			throw new IllegalArgumentException("Strictly positive number " +
+					"expected");
+		
+		/* Each call uses its own filters */
+		List<ForwardFilter<O>> filters =
+			new ArrayList<ForwardFilter<O>>(this.filters.size());
+		for (ForwardFilter<O> filter : this.filters)
+			filters.add(new ForwardFilter<O>(filter));
+		
+		double[] lnProbabilities = new double[filters.size()];
+		int[] active = new int[filters.size()];
+		int nbActive = filters.size();
+		for (int h = 0; h < nbActive; h++)
+			active[h] = h;
+		
+		/* The opdfs used by the HMMs still scored */
+		int[] used = new int[opdfs.size()];
+		int nbUsed = opdfs.size();
+		for (int u = 0; u < nbUsed; u++)
+			used[u] = u;
+		
+		int nbTasks = nbTasks(executor);
+		double[] emissions = new double[BLOCK_LENGTH * opdfs.size()];
+		
+		for (int start = 0; start < sequence.size(); start += BLOCK_LENGTH) {
+			List<? extends O> block = sequence.subList(start,
+					Math.min(start + BLOCK_LENGTH, sequence.size()));
+			
+			computeEmissions(block, emissions, used, nbUsed, nbTasks,
+					executor);
+			score(block, emissions, filters, active, nbActive,
+					lnProbabilities, nbTasks, executor);
+			
+			if (start + BLOCK_LENGTH < sequence.size()) {
+				nbActive = discard(active, nbActive, lnProbabilities, k);
+				nbUsed = used(active, nbActive, lnProbabilities, used);
+			}
+		}
+		
+		double[] result = new double[filters.size()];
+		Arrays.fill(result, Double.NaN);
+		for (int a = 0; a < nbActive; a++)
+			result[active[a]] = lnProbabilities[active[a]];
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Finds the HMMs of this bank giving the highest probability to a
+	 * sequence.
+	 *
+	 * @param sequence A non-empty observation sequence.
+	 * @param k The (strictly positive) number of HMMs wanted.
+	 * @param executor The executor used to score the HMMs, or
+	 *        <code>null</code> if they must be scored by the calling thread.
+	 * @return The indexes of the (at most) <code>k</code> most likely HMMs,
+	 *         the most likely first.
+	 */
+	public int[] mostLikely(List<? extends O> sequence, int k,
+			ExecutorService executor)
+	{
+		final double[] lnProbabilities =
+			lnProbabilities(sequence, k, executor);
+		
+		List<Integer> hmms = new ArrayList<Integer>();
+		for (int h = 0; h < lnProbabilities.length; h++)
+			if (!Double.isNaN(lnProbabilities[h]))
+				hmms.add(h);
+		
+		Collections.sort(hmms, new Comparator<Integer>() {
+			public int compare(Integer h1, Integer h2)
+			{
+				return Double.compare(lnProbabilities[h2],
+						lnProbabilities[h1]);
+			}
+		});
+		
+		int[] result = new int[Math.min(k, hmms.size())];
+		for (int i = 0; i < result.length; i++)
+			result[i] = hmms.get(i);
+		
+		return result;
+	}
+	
+	
+	/* The number of tasks the work on each block is divided in */
+	private int nbTasks(ExecutorService executor)
+	{
+		if (executor == null)
+			return 1;
+		if (nbTasks > 0)
+			return nbTasks;
+		if (executor instanceof ThreadPoolExecutor)
+			return Math.max(1,
+					((ThreadPoolExecutor) executor).getCorePoolSize());
+		
+		return 1;
+	}
+	
+	
+	/*
+	 * Computes emissions[t * nbOpdfs + u], the probability of the t-th
+	 * observation of a block given the u-th opdf, for each u in
+	 * used[0..nbUsed-1].
+	 */
+	private void computeEmissions(final List<? extends O> block,
+			final double[] emissions, final int[] used, int nbUsed,
+			int nbTasks, ExecutorService executor)
+	{
+		final int nbOpdfs = opdfs.size();
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		
+		for (int task = 0; task < nbTasks; task++) {
+			final int from = task * nbUsed / nbTasks;
+			final int to = (task + 1) * nbUsed / nbTasks;
+			
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					for (int t = 0; t < block.size(); t++) {
+						O o = block.get(t);
+						
+						for (int v = from; v < to; v++) {
+							int u = used[v];
+							emissions[t * nbOpdfs + u] =
+								opdfs.get(u).probability(o);
+						}
+					}
+					
+					return null;
+				}
+			});
+		}
+		
+		run(tasks, executor);
+	}
+	
+	
+	/*
+	 * Updates the filters of the active HMMs with the observations of a
+	 * block, and sets their probability in lnProbabilities.
+	 */
+	private void score(final List<? extends O> block, final double[] emissions,
+			final List<ForwardFilter<O>> filters, final int[] active,
+			int nbActive, final double[] lnProbabilities, int nbTasks,
+			ExecutorService executor)
+	{
+		final int nbOpdfs = opdfs.size();
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		
+		for (int task = 0; task < nbTasks; task++) {
+			final int from = task * nbActive / nbTasks;
+			final int to = (task + 1) * nbActive / nbTasks;
+			
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					double[] hmmEmissions = new double[0];
+					
+					for (int a = from; a < to; a++) {
+						int h = active[a];
+						ForwardFilter<O> filter = filters.get(h);
+						int[] indexes = opdfIndexes[h];
+						
+						if (lnProbabilities[h] == Double.NEGATIVE_INFINITY)
+							continue;
+						if (hmmEmissions.length < indexes.length)
+							hmmEmissions = new double[indexes.length];
+						
+						for (int t = 0; t < block.size(); t++) {
+							for (int i = 0; i < indexes.length; i++)
+								hmmEmissions[i] =
+									emissions[t * nbOpdfs + indexes[i]];
+							
+							/* NaN if the sequence has a null probability */
+							if (Double.isNaN(filter.update(hmmEmissions))) {
+								lnProbabilities[h] = Double.NEGATIVE_INFINITY;
+								break;
+							}
+						}
+						
+						if (lnProbabilities[h] != Double.NEGATIVE_INFINITY)
+							lnProbabilities[h] = filter.lnProbability();
+					}
+					
+					return null;
+				}
+			});
+		}
+		
+		run(tasks, executor);
+	}
+	
+	
+	/*
+	 * Removes from active[0..nbActive-1] the HMMs falling behind the k-th
+	 * best one by more than the margin, and returns the number of HMMs
+	 * left.
+	 */
+	private int discard(int[] active, int nbActive, double[] lnProbabilities,
+			int k)
+	{
+		if (nbActive <= k || margin == Double.POSITIVE_INFINITY)
+			return nbActive;
+		
+		double[] sorted = new double[nbActive];
+		for (int a = 0; a < nbActive; a++)
+			sorted[a] = lnProbabilities[active[a]];
+		Arrays.sort(sorted);
+		
+		double threshold = sorted[nbActive - k] - margin;
+		int kept = 0;
+		for (int a = 0; a < nbActive; a++)
+			if (lnProbabilities[active[a]] >= threshold)
+				active[kept++] = active[a];
+		
+		return kept;
+	}
+	
+	
+	/*
+	 * Sets used[0..n-1] to the indexes of the opdfs of the active HMMs whose
+	 * probability is not null, and returns n.
+	 */
+	private int used(int[] active, int nbActive, double[] lnProbabilities,
+			int[] used)
+	{
+		boolean[] isUsed = new boolean[opdfs.size()];
+		
+		for (int a = 0; a < nbActive; a++)
+			if (lnProbabilities[active[a]] != Double.NEGATIVE_INFINITY)
+				for (int u : opdfIndexes[active[a]])
+					isUsed[u] = true;
+		
+		int nbUsed = 0;
+		for (int u = 0; u < isUsed.length; u++)
+			if (isUsed[u])
+				used[nbUsed++] = u;
+		
+		return nbUsed;
+	}
+	
+	
+	private static void run(List<Callable<Object>> tasks,
+			ExecutorService executor)
+	{
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		
+		for (Callable<Object> task : tasks)
+			if (executor == null) {
+				FutureTask<Object> future = new FutureTask<Object>(task);
+				future.run();
+				futures.add(future);
+			} else
+				futures.add(executor.submit(task));
+		
+		for (Future<Object> future : futures)
+			SequenceGroups.get(future);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/*
+ * The inner loops of the dense probability-domain algorithms: sums of
+ * products over contiguous parts of arrays.
+ *
+ * Each loop keeps four independent partial sums, so that consecutive
+ * additions do not wait for each other (a single sum cannot be reordered by
+ * the JIT compiler, floating-point addition not being associative); the
+ * partial sums are combined at the end.  The loops hold no method call and
+ * no branch other than their bound.
+ */
+final class Kernels
+{
+	private Kernels()
+	{
+	}
+	
+	
+	/*
+	 * Returns the sum of x[xFrom + k] * y[yFrom + k] for k in
+	 * [0, length[.
+	 */
+	static double dot(double[] x, int xFrom, double[] y, int yFrom,
+			int length)
+	{
+		double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+		int k = 0;
+		
+		for (; k <= length - 4; k += 4) {
+			s0 += x[xFrom + k] * y[yFrom + k];
+			s1 += x[xFrom + k + 1] * y[yFrom + k + 1];
+			s2 += x[xFrom + k + 2] * y[yFrom + k + 2];
+			s3 += x[xFrom + k + 3] * y[yFrom + k + 3];
+		}
+		for (; k < length; k++)
+			s0 += x[xFrom + k] * y[yFrom + k];
+		
+		return (s0 + s1) + (s2 + s3);
+	}
+	
+	
+	/*
+	 * Returns the sum of x[xFrom + k] * y[yFrom + k] * z[zFrom + k] for k in
+	 * [0, length[.
+	 */
+	static double dot(double[] x, int xFrom, double[] y, int yFrom,
+			double[] z, int zFrom, int length)
+	{
+		double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+		int k = 0;
+		
+		for (; k <= length - 4; k += 4) {
+			s0 += x[xFrom + k] * y[yFrom + k] * z[zFrom + k];
+			s1 += x[xFrom + k + 1] * y[yFrom + k + 1] * z[zFrom + k + 1];
+			s2 += x[xFrom + k + 2] * y[yFrom + k + 2] * z[zFrom + k + 2];
+			s3 += x[xFrom + k + 3] * y[yFrom + k + 3] * z[zFrom + k + 3];
+		}
+		for (; k < length; k++)
+			s0 += x[xFrom + k] * y[yFrom + k] * z[zFrom + k];
+		
+		return (s0 + s1) + (s2 + s3);
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An immutable view of an HMM in the logarithmic domain.
+ * <p>
+ * The neperian logarithms of the initial probabilities and of the transition
+ * probabilities are computed once when this object is built, so that the
+ * algorithms working in the logarithmic domain (such as
+ * {@link ViterbiCalculator} and {@link ForwardBackwardLogCalculator}) never
+ * call <code>Math.log</code> in their inner loops.  The transition matrix is
+ * stored both row by row and column by column, so that the sums (or maxima)
+ * over the states preceding a given state are computed on contiguous
+ * elements.  If the HMM is sparse (see {@link Hmm#isSparse}), only the
+ * logarithms of the allowed transitions are stored.
+ * <p>
+ * This object is a snapshot: the observation distributions are copied and
+ * later modifications of the HMM it was built from are not reflected.
+ * The view returned by {@link Hmm#logView} is the exception: it shares the
+ * observation distributions of its HMM, which builds a new view when its
+ * parameters are modified.
+ * <p>
+ * It can be shared by any number of threads and reused for any number of
+ * sequences.
+ */
+public final class LogHmm<O extends Observation>
+{
+	/* lnPi[i] = ln(pi_i) */
+	final double[] lnPi;
+	/* lnA[i * nbStates + j] = ln(a_ij); null if the HMM is sparse */
+	final double[] lnA;
+	/* lnATransposed[j * nbStates + i] = ln(a_ij); null if the HMM is sparse */
+	final double[] lnATransposed;
+	private final List<Opdf<O>> opdfs;
+	private final int nbStates;
+	/* The logarithms of the transitions j such that a_ij > 0; built on demand
+	 if the HMM is not sparse */
+	private volatile SparseTransitions lnTransitions;
+	/* The transition probabilities themselves, laid out like lnA,
+	 lnATransposed and lnTransitions; built on demand */
+	private volatile double[] a;
+	private volatile double[] aTransposed;
+	private volatile SparseTransitions transitions;
+	
+	
+	/**
+	 * Builds the logarithmic view of an HMM.
+	 *
+	 * @param hmm A Hidden Markov Model.
+	 */
+	public LogHmm(Hmm<O> hmm)
+	{
+		this(hmm, true);
+	}
+	
+	
+	/*
+	 * Builds the logarithmic view of an HMM, sharing its observation
+	 * distributions if copyOpdfs is false.
+	 */
+	LogHmm(Hmm<O> hmm, boolean copyOpdfs)
+	{
+		nbStates = hmm.nbStates();
+		lnPi = new double[nbStates];
+		opdfs = new ArrayList<Opdf<O>>(nbStates);
+		
+		for (int i = 0; i < nbStates; i++) {
+			lnPi[i] = Math.log(hmm.getPi(i));
+			opdfs.add(copyOpdfs ? hmm.getOpdf(i).clone() : hmm.getOpdf(i));
+		}
+		
+		SparseTransitions sparseA = hmm.sparseTransitions();
+		if (sparseA != null) {
+			lnA = lnATransposed = null;
+			lnTransitions = new SparseTransitions(sparseA, sparseA.values);
+			
+			double[] lnValues = lnTransitions.values;
+			for (int k = 0; k < lnValues.length; k++)
+				lnValues[k] = Math.log(lnValues[k]);
+		} else {
+			lnA = new double[nbStates * nbStates];
+			lnATransposed = new double[nbStates * nbStates];
+			
+			for (int i = 0; i < nbStates; i++)
+				for (int j = 0; j < nbStates; j++)
+					lnATransposed[j * nbStates + i] = lnA[i * nbStates + j] =
+						Math.log(hmm.getAij(i, j));
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of states of the HMM.
+	 *
+	 * @return The number of states of the HMM.
+	 */
+	public int nbStates()
+	{
+		return nbStates;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the <i>pi</i> value associated with
+	 * a given state.
+	 *
+	 * @param stateNb A state number such that
+	 *                <code>0 &le; stateNb &lt; nbStates()</code>
+	 * @return The logarithm of the <i>pi</i> value associated to
+	 *         <code>stateNb</code>.
+	 */
+	public double getLnPi(int stateNb)
+	{
+		return lnPi[stateNb];
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of going from a
+	 * state to another.
+	 *
+	 * @param i The first state number such that
+	 *        <code>0 &le; i &lt; nbStates()</code>.
+	 * @param j The second state number such that
+	 *        <code>0 &le; j &lt; nbStates()</code>.
+	 * @return The logarithm of the probability of going from state
+	 *         <code>i</code> to state <code>j</code>.
+	 */
+	public double getLnAij(int i, int j)
+	{
+		if (lnA == null) {
+			int k = lnTransitions.index(i, j);
+			return (k < 0) ? Double.NEGATIVE_INFINITY :
+				lnTransitions.values[k];
+		}
+		
+		return lnA[i * nbStates + j];
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of going from a
+	 * state to one of its successors.  Unlike {@link #getLnAij}, this method
+	 * does not have to search the transition in a sparse HMM.
+	 *
+	 * @param i A state number such that
+	 *        <code>0 &le; i &lt; nbStates()</code>.
+	 * @param k A successor number such that
+	 *        <code>0 &le; k &lt; hmm.nbSuccessors(i)</code>, where
+	 *        <code>hmm</code> is the HMM this object has been built from.
+	 * @return The logarithm of the probability of going from state
+	 *         <code>i</code> to state <code>hmm.successor(i, k)</code>.
+	 */
+	public double getLnSuccessorAij(int i, int k)
+	{
+		/* lnTransitions has the structure of the sparse HMM itself */
+		if (lnA == null)
+			return lnTransitions.values[lnTransitions.rowStart[i] + k];
+		
+		return lnA[i * nbStates + k];
+	}
+	
+	
+	/* Tells if only the allowed transitions are stored (see lnTransitions) */
+	boolean isSparse()
+	{
+		return lnA == null;
+	}
+	
+	
+	/*
+	 * Returns the transitions whose probability is not null; their values
+	 * are the logarithms of their probabilities.  The object returned is
+	 * shared and must not be modified.
+	 */
+	SparseTransitions lnTransitions()
+	{
+		SparseTransitions lnTransitions = this.lnTransitions;
+		
+		if (lnTransitions == null)
+			this.lnTransitions = lnTransitions =
+				new SparseTransitions(nbStates, lnA, Double.NEGATIVE_INFINITY);
+		
+		return lnTransitions;
+	}
+	
+	
+	/*
+	 * Returns the transition probabilities of a non-sparse HMM:
+	 * a()[i * nbStates + j] = a_ij.  The array is shared and must not be
+	 * modified.
+	 */
+	double[] a()
+	{
+		double[] a = this.a;
+		
+		if (a == null)
+			this.a = a = exp(lnA);
+		
+		return a;
+	}
+	
+	
+	/*
+	 * Returns the transition probabilities of a non-sparse HMM, column by
+	 * column: aTransposed()[j * nbStates + i] = a_ij.  The array is shared
+	 * and must not be modified.
+	 */
+	double[] aTransposed()
+	{
+		double[] aTransposed = this.aTransposed;
+		
+		if (aTransposed == null)
+			this.aTransposed = aTransposed = exp(lnATransposed);
+		
+		return aTransposed;
+	}
+	
+	
+	/*
+	 * Returns the same transitions as lnTransitions(), whose values are
+	 * their probabilities.  The object returned is shared and must not be
+	 * modified.
+	 */
+	SparseTransitions transitions()
+	{
+		SparseTransitions transitions = this.transitions;
+		
+		if (transitions == null) {
+			SparseTransitions lnTransitions = lnTransitions();
+			this.transitions = transitions = new SparseTransitions(
+					lnTransitions, exp(lnTransitions.values));
+		}
+		
+		return transitions;
+	}
+	
+	
+	private static double[] exp(double[] x)
+	{
+		double[] y = new double[x.length];
+		
+		for (int k = 0; k < x.length; k++)
+			y[k] = Math.exp(x[k]);
+		
+		return y;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability (density) of an
+	 * observation in a given state (see {@link Opdf#lnProbability}).
+	 *
+	 * @param stateNb A state number such that
+	 *                <code>0 &le; stateNb &lt; nbStates()</code>
+	 * @param o An observation.
+	 * @return The logarithm of the probability (density) of <code>o</code>
+	 *         in state <code>stateNb</code>.
+	 */
+	public double lnEmission(int stateNb, O o)
+	{
+		return opdfs.get(stateNb).lnProbability(o);
+	}
+	
+	
+	/**
+	 * Computes the neperian logarithm of the probability (density) of an
+	 * observation in each state.
+	 *
+	 * @param o An observation.
+	 * @param lnEmissions The array in which the logarithms are stored;
+	 *        <code>lnEmissions[offset + i]</code> is set to the logarithm of
+	 *        the probability of <code>o</code> in state <code>i</code>.
+	 * @param offset The index of the first element set.
+	 */
+	public void lnEmissions(O o, double[] lnEmissions, int offset)
+	{
+		for (int i = 0; i < nbStates; i++)
+			lnEmissions[offset + i] = lnEmission(i, o);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * This class gives some methods used to compute sums of numbers represented
+ * by their neperian logarithms.
+ * <p>
+ * The sums are computed using the <i>log-sum-exp</i> method: the largest
+ * element is factored out so that the exponentials never overflow and the
+ * largest term never underflows.  Both passes are simple loops over
+ * contiguous arrays.
+ */
+public final class LogMath
+{
+	private LogMath()
+	{
+	}
+	
+	
+	/**
+	 * Computes <code>ln(exp(a) + exp(b))</code>.
+	 *
+	 * @param a The logarithm of the first term.
+	 * @param b The logarithm of the second term.
+	 * @return The logarithm of the sum.
+	 */
+	public static double logSum(double a, double b)
+	{
+		if (a < b) {
+			double tmp = a;
+			a = b;
+			b = tmp;
+		}
+		
+		if (a == Double.NEGATIVE_INFINITY)
+			return a;
+		
+		return a + Math.log1p(Math.exp(b - a));
+	}
+	
+	
+	/**
+	 * Computes <code>ln(sum(exp(v[i])))</code> for
+	 * <code>from &le; i &lt; to</code>.
+	 *
+	 * @param v An array of logarithms.
+	 * @param from The index of the first element of the sum.
+	 * @param to The index following the last element of the sum.
+	 * @return The logarithm of the sum, <code>-Infinity</code> if the sum is
+	 *         empty or if all its elements are zero.
+	 */
+	public static double logSumExp(double[] v, int from, int to)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		
+		for (int i = from; i < to; i++)
+			if (v[i] > max)
+				max = v[i];
+		
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
+			return max;
+		
+		double sum = 0.;
+		for (int i = from; i < to; i++)
+			sum += Math.exp(v[i] - max);
+		
+		return max + Math.log(sum);
+	}
+	
+	
+	/**
+	 * Computes <code>ln(sum(exp(v[i])))</code> over a whole array.
+	 *
+	 * @param v An array of logarithms.
+	 * @return The logarithm of the sum of the exponentials of the elements of
+	 *         <code>v</code>.
+	 */
+	public static double logSumExp(double[] v)
+	{
+		return logSumExp(v, 0, v.length);
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * This class computes the most likely state sequence of a stream of
+ * observations, one observation at a time.
+ * <p>
+ * The <i>delta</i> values of {@link ViterbiCalculator} are only kept for the
+ * last observation, and the <i>psy</i> values (the back pointers) are only
+ * kept since the last time step whose state is known.  After each
+ * observation, the most likely paths ending in each state are followed
+ * backward; the time step at which they all go through the same state is a
+ * <i>convergence point</i>: the states up to this point will not change
+ * whatever the following observations, and are given to a
+ * {@link StateListener}.  If the observations are such that all the paths
+ * rarely converge, a maximal lag can be given: when the oldest undecided
+ * state is that old, it is taken from the current most likely path, and the
+ * paths not going through that state are discarded.  The decoded states
+ * then still form a possible path, but it might not be the most likely one.
+ * <p>
+ * The states that are still undecided when the stream ends are given by the
+ * {@link #finish} method.
+ */
+public class OnlineViterbiCalculator<O extends Observation>
+{
+	private final LogHmm<O> hmm;
+	private final StateListener listener;
+	private final int nbStates;
+	private final int maxLag;
+	/* delta[i] = ln(delta_t(i)) - lnOffset */
+	private double[] delta;
+	private double[] previousDelta;
+	private double lnOffset;
+	private double[] lnEmissions;
+	/* The psy arrays of times start+1 to t, in a circular buffer */
+	private int[][] psy;
+	private int psyHead;
+	private int psySize;
+	/* The time of the last observation, and of the first undecided state */
+	private long t;
+	private long start;
+	/* Working arrays used to follow the paths backward */
+	private int[] states;
+	private int[] nextStates;
+	private long[] marks;
+	private long mark;
+	/* The decided states */
+	private int[] path;
+	
+	
+	/**
+	 * Creates an online Viterbi calculator with no maximal lag.
+	 *
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param listener The object receiving the decided states.
+	 */
+	public OnlineViterbiCalculator(LogHmm<O> hmm, StateListener listener)
+	{
+		this(hmm, listener, 0);
+	}
+	
+	
+	/**
+	 * Creates an online Viterbi calculator.
+	 *
+	 * @param hmm The logarithmic view of a Hidden Markov Model.
+	 * @param listener The object receiving the decided states.
+	 * @param maxLag The maximal number of observations that can follow the
+	 *        oldest undecided state; <code>0</code> if there is no such
+	 *        limit.
+	 */
+	public OnlineViterbiCalculator(LogHmm<O> hmm, StateListener listener,
+			int maxLag)
+	{
+		if (maxLag < 0)
+			throw new IllegalArgumentException("Positive number expected");
+		
+		this.hmm = hmm;
+		this.listener = listener;
+		this.maxLag = maxLag;
+		nbStates = hmm.nbStates();
+		delta = new double[nbStates];
+		previousDelta = new double[nbStates];
+		lnEmissions = new double[nbStates];
+		psy = new int[(maxLag > 0) ? maxLag : 16][];
+		states = new int[nbStates];
+		nextStates = new int[nbStates];
+		marks = new long[nbStates];
+		path = new int[psy.length + 1];
+		
+		reset();
+	}
+	
+	
+	/**
+	 * Creates an online Viterbi calculator with no maximal lag.
+	 *
+	 * @param hmm A Hidden Markov Model.
+	 * @param listener The object receiving the decided states.
+	 */
+	public OnlineViterbiCalculator(Hmm<O> hmm, StateListener listener)
+	{
+		this(new LogHmm<O>(hmm), listener, 0);
+	}
+	
+	
+	/**
+	 * Forgets all the observations seen so far, including the ones whose
+	 * state has not been decided yet.
+	 */
+	public void reset()
+	{
+		t = -1;
+		start = 0;
+		psyHead = psySize = 0;
+		lnOffset = 0.;
+	}
+	
+	
+	/**
+	 * Handles a new observation.  The states that can be decided are given
+	 * to the listener before this method returns.
+	 *
+	 * @param o The observation following the ones seen so far.
+	 * @throws IllegalArgumentException If the observations seen so far,
+	 *         including <code>o</code>, have a null probability; the
+	 *         calculator is then left unchanged.
+	 */
+	public void update(O o)
+	{
+		hmm.lnEmissions(o, lnEmissions, 0);
+		
+		int[] row = null;
+		if (t >= 0)
+			row = newPsyRow();
+		
+		double[] tmp = previousDelta;
+		previousDelta = delta;
+		delta = tmp;
+		
+		double max = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < nbStates; j++) {
+			if (t < 0)
+				delta[j] = hmm.lnPi[j] + lnEmissions[j];
+			else
+				delta[j] = computeStep(j, row) + lnEmissions[j];
+			
+			if (delta[j] > max)
+				max = delta[j];
+		}
+		
+		if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max)) {
+			delta = previousDelta;
+			previousDelta = tmp;
+			throw new IllegalArgumentException("Observation has a null " +
+					"probability");
+		}
+		
+		/* Keeps the delta values close to 0 */
+		for (int j = 0; j < nbStates; j++)
+			delta[j] -= max;
+		lnOffset += max;
+		
+		t++;
+		if (t > start)
+			psySize++;
+		
+		decideConverged();
+		
+		if (maxLag > 0 && t - start >= maxLag)
+			force();
+	}
+	
+	
+	/* Returns max_i(previousDelta[i] + ln(a_ij)) and sets row[j] */
+	private double computeStep(int j, int[] row)
+	{
+		double maxDelta = Double.NEGATIVE_INFINITY;
+		int max_psy = 0;
+		
+		if (hmm.isSparse()) {
+			SparseTransitions lnA = hmm.lnTransitions();
+			
+			for (int k = lnA.columnStart[j]; k < lnA.columnStart[j+1]; k++) {
+				int i = lnA.rows[k];
+				double thisDelta = previousDelta[i] +
+				lnA.values[lnA.positions[k]];
+				
+				if (maxDelta < thisDelta) {
+					maxDelta = thisDelta;
+					max_psy = i;
+				}
+			}
+		} else {
+			double[] lnA = hmm.lnATransposed;
+			int column = j * nbStates;
+			
+			for (int i = 0; i < nbStates; i++) {
+				double thisDelta = previousDelta[i] + lnA[column + i];
+				
+				if (maxDelta < thisDelta) {
+					maxDelta = thisDelta;
+					max_psy = i;
+				}
+			}
+		}
+		
+		row[j] = max_psy;
+		return maxDelta;
+	}
+	
+	
+	/*
+	 * Follows the paths ending in the possible states backward until they
+	 * converge, and gives the states up to the convergence point.
+	 */
+	private void decideConverged()
+	{
+		int nb = 0;
+		
+		for (int j = 0; j < nbStates; j++)
+			if (delta[j] != Double.NEGATIVE_INFINITY)
+				states[nb++] = j;
+		
+		long u = t;
+		while (nb > 1 && u > start) {
+			int[] row = psyRow(u);
+			int nbNext = 0;
+			
+			mark++;
+			for (int k = 0; k < nb; k++) {
+				int i = row[states[k]];
+				
+				if (marks[i] != mark) {
+					marks[i] = mark;
+					nextStates[nbNext++] = i;
+				}
+			}
+			
+			int[] tmp = states;
+			states = nextStates;
+			nextStates = tmp;
+			nb = nbNext;
+			u--;
+		}
+		
+		if (nb == 1)
+			decide(states[0], u);
+	}
+	
+	
+	/*
+	 * Takes the oldest undecided state from the most likely path, and
+	 * discards the paths that do not go through this state.
+	 */
+	private void force()
+	{
+		for (int j = 0; j < nbStates; j++)
+			states[j] = j;
+		
+		for (long u = t; u > start; u--) {
+			int[] row = psyRow(u);
+			
+			for (int j = 0; j < nbStates; j++)
+				states[j] = row[states[j]];
+		}
+		
+		int best = 0;
+		for (int j = 1; j < nbStates; j++)
+			if (delta[j] > delta[best])
+				best = j;
+		
+		int state = states[best];
+		for (int j = 0; j < nbStates; j++)
+			if (states[j] != state)
+				delta[j] = Double.NEGATIVE_INFINITY;
+		
+		listener.state(start, state);
+		start++;
+		removePsyRows(1);
+	}
+	
+	
+	/*
+	 * Gives the states from start to u, state being the one at time u, and
+	 * forgets the matching psy rows.
+	 */
+	private void decide(int state, long u)
+	{
+		int length = (int) (u - start + 1);
+		
+		if (path.length < length)
+			path = new int[psy.length + 1];
+		
+		path[length - 1] = state;
+		for (long s = u; s > start; s--)
+			path[(int) (s - start - 1)] = psyRow(s)[path[(int) (s - start)]];
+		
+		for (int k = 0; k < length; k++)
+			listener.state(start + k, path[k]);
+		
+		removePsyRows(Math.min(length, psySize));
+		start = u + 1;
+	}
+	
+	
+	/**
+	 * Gives the states of the observations whose states are still undecided,
+	 * taken from the current most likely path, and resets this object.
+	 */
+	public void finish()
+	{
+		if (t >= start) {
+			int best = 0;
+			
+			for (int j = 1; j < nbStates; j++)
+				if (delta[j] > delta[best])
+					best = j;
+			
+			decide(best, t);
+		}
+		
+		reset();
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the observations
+	 * seen so far along the most likely state sequence (taking the forced
+	 * decisions into account).
+	 *
+	 * @return The logarithm of the probability of the most likely path
+	 *         (<code>0</code> if no observation has been seen).
+	 */
+	public double lnProbability()
+	{
+		if (t < 0)
+			return 0.;
+		
+		double max = Double.NEGATIVE_INFINITY;
+		
+		for (int j = 0; j < nbStates; j++)
+			if (delta[j] > max)
+				max = delta[j];
+		
+		return max + lnOffset;
+	}
+	
+	
+	/**
+	 * Returns the number of observations whose state is not decided yet.
+	 *
+	 * @return The number of undecided states.
+	 */
+	public int nbUndecided()
+	{
+		return (int) (t - start + 1);
+	}
+	
+	
+	/* Returns the psy row of time u (start < u <= t) */
+	private int[] psyRow(long u)
+	{
+		return psy[(psyHead + (int) (u - start - 1)) % psy.length];
+	}
+	
+	
+	/* Returns an array that can be used as the next psy row */
+	private int[] newPsyRow()
+	{
+		if (psySize == psy.length) {
+			int[][] newPsy = new int[2 * psy.length][];
+			
+			for (int k = 0; k < psySize; k++)
+				newPsy[k] = psy[(psyHead + k) % psy.length];
+			psy = newPsy;
+			psyHead = 0;
+		}
+		
+		int index = (psyHead + psySize) % psy.length;
+		if (psy[index] == null)
+			psy[index] = new int[nbStates];
+		
+		return psy[index];
+	}
+	
+	
+	private void removePsyRows(int nb)
+	{
+		psyHead = (psyHead + nb) % psy.length;
+		psySize -= nb;
+	}
+}
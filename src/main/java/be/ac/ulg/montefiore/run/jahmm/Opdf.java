@@ -31,6 +31,21 @@ extends Cloneable, Serializable
      */
     public double probability(O o);
 
+
+    /**
+     * Returns the neperian logarithm of the probability (density) of an
+     * observation given a distribution.  This method should be preferred
+     * to <code>Math.log(probability(o))</code>: the implementations compute
+     * the logarithm directly, so that densities too small to be represented
+     * (<i>e.g.</i> in high dimension) do not lead to
+     * <code>-Infinity</code>.
+     *
+     * @param o An observation.
+     * @return The logarithm of the probability (density, if <code>o</code>
+     *         takes continuous values) of <code>o</code> for this function.
+     */
+    public double lnProbability(O o);
+
     
      /**
      * Generates a (pseudo) random observation according to this
@@ -91,6 +106,34 @@ extends Cloneable, Serializable
     void fit(Collection<? extends O> co, double[] weights);
     
     
+    /**
+     * Creates an object accumulating the statistics needed to fit this
+     * function to a weighted set of observations (see
+     * {@link #fit(OpdfStatistics)}).
+     * <p>
+     * Functions whose fitting process depends on their current parameters
+     * (<i>e.g.</i> mixtures) take the parameters they have when this method
+     * is called into account.
+     *
+     * @return An empty statistics object.
+     */
+    public OpdfStatistics<O> newStatistics();
+
+
+    /**
+     * Fits this observation probability (distribution) function to the
+     * weighted (non empty) set of observations described by a statistics
+     * object.  The result is the same as the one of
+     * {@link #fit(Collection, double[])} given the same observations and
+     * (normalized) weights.
+     *
+     * @param statistics Statistics created by {@link #newStatistics()},
+     *        such that <code>statistics.weight()</code> is strictly
+     *        positive.
+     */
+    public void fit(OpdfStatistics<O> statistics);
+
+
     /**
      * Returns a {@link java.lang.String String} describing this distribution.
      * 
@@ -81,6 +81,12 @@ implements Opdf<ObservationDiscrete<E>>
 	}
 	
 	
+	public double lnProbability(ObservationDiscrete<E> o)
+	{
+		return distribution.lnProbability(toIntegerMap.get(o.value));
+	}
+	
+	
 	public ObservationDiscrete<E> generate()
 	{
 		return 
@@ -123,6 +129,18 @@ implements Opdf<ObservationDiscrete<E>>
 	}
 	
 	
+	public OpdfDiscreteStatistics<E> newStatistics()
+	{
+		return new OpdfDiscreteStatistics<E>(values.get(0).getDeclaringClass());
+	}
+	
+	
+	public void fit(OpdfStatistics<ObservationDiscrete<E>> statistics)
+	{
+		distribution.fit(((OpdfDiscreteStatistics<E>) statistics).statistics);
+	}
+	
+	
 	@SuppressWarnings("unchecked")
 	public OpdfDiscrete<E> clone()
 	{
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Accumulates the statistics needed to fit a {@link OpdfDiscrete}
+ * distribution: the sum of the weights of each element of the set of
+ * values.
+ */
+public class OpdfDiscreteStatistics<E extends Enum<E>>
+implements OpdfStatistics<ObservationDiscrete<E>>
+{
+	final OpdfIntegerStatistics statistics;
+	
+	
+	/**
+	 * Creates an empty statistics object.
+	 *
+	 * @param valuesClass An {@link Enum Enum} class representing the set of
+	 *      values.
+	 */
+	public OpdfDiscreteStatistics(Class<E> valuesClass)
+	{
+		statistics = 
+			new OpdfIntegerStatistics(valuesClass.getEnumConstants().length);
+	}
+	
+	
+	public void accumulate(ObservationDiscrete<E> o, double weight)
+	{
+		statistics.accumulate(o.value.ordinal(), weight);
+	}
+	
+	
+	public void merge(OpdfStatistics<ObservationDiscrete<E>> statistics)
+	{
+		this.statistics.merge(((OpdfDiscreteStatistics<E>) statistics).
+				statistics);
+	}
+	
+	
+	public void scale(double factor)
+	{
+		statistics.scale(factor);
+	}
+	
+	
+	public double weight()
+	{
+		return statistics.weight();
+	}
+	
+	
+	/**
+	 * Returns the sum of the weights of the observations equal to a given
+	 * value.
+	 *
+	 * @param value An element of the set of values.
+	 * @return The sum of the weights of the observations equal to
+	 *         <code>value</code>.
+	 */
+	public double count(E value)
+	{
+		return statistics.count(value.ordinal());
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
@@ -72,6 +72,12 @@ implements Opdf<ObservationReal>
 	}
 	
 	
+	public double lnProbability(ObservationReal o)
+	{
+		return distribution.lnProbability(o.value);
+	}
+	
+	
 	public ObservationReal generate()
 	{
 		return new ObservationReal(distribution.generate());
@@ -124,6 +130,23 @@ implements Opdf<ObservationReal>
 	}
 	
 	
+	public OpdfGaussianStatistics newStatistics()
+	{
+		return new OpdfGaussianStatistics();
+	}
+	
+	
+	public void fit(OpdfStatistics<ObservationReal> statistics)
+	{
+		OpdfGaussianStatistics s = (OpdfGaussianStatistics) statistics;
+		
+		if (s.weight() <= 0.)
+			throw new IllegalArgumentException("Empty observation set");
+		
+		distribution = new GaussianDistribution(s.mean(), s.variance());
+	}
+	
+	
 	public OpdfGaussian clone()
 	{
 		try {
@@ -61,6 +61,12 @@ public class OpdfGaussianMixture implements Opdf<ObservationReal>
 	}
 	
 	
+	public double lnProbability(ObservationReal o)
+	{
+		return distribution.lnProbability(o.value);
+	}
+	
+	
 	public ObservationReal generate()
 	{
 		return new ObservationReal(distribution.generate());
@@ -302,6 +308,42 @@ public class OpdfGaussianMixture implements Opdf<ObservationReal>
 	}
 	
 	
+	/**
+	 * Creates an object accumulating the statistics needed to perform one
+	 * iteration of an expectation-maximisation algorithm, based on the
+	 * current parameters of this mixture.
+	 *
+	 * @return An empty statistics object.
+	 */
+	public OpdfGaussianMixtureStatistics newStatistics()
+	{
+		return new OpdfGaussianMixtureStatistics(this);
+	}
+	
+	
+	/**
+	 * Fits this observation distribution function to the weighted set of
+	 * observations described by a statistics object.  This method performs
+	 * one iteration of an expectation-maximisation algorithm, starting from
+	 * the parameters of the mixture that created the statistics.
+	 *
+	 * @param statistics Statistics created by {@link #newStatistics()}.
+	 */
+	public void fit(OpdfStatistics<ObservationReal> statistics)
+	{
+		OpdfGaussianMixtureStatistics s = 
+			(OpdfGaussianMixtureStatistics) statistics;
+		
+		if (s.nbGaussians() != nbGaussians())
+			throw new IllegalArgumentException("Incompatible statistics");
+		if (s.weight() <= 0.)
+			throw new IllegalArgumentException("Empty observation set");
+		
+		distribution = new GaussianMixtureDistribution(s.means(),
+				s.variances(), s.proportions());
+	}
+	
+	
 	public OpdfGaussianMixture clone()
 	{
 		try {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import be.ac.ulg.montefiore.run.distributions.GaussianDistribution;
+
+
+/**
+ * Accumulates the statistics needed to perform one iteration of the
+ * expectation-maximisation algorithm used to fit a
+ * {@link OpdfGaussianMixture} distribution.
+ * <p>
+ * The relative weight of each observation for each Gaussian is computed
+ * using the parameters the mixture had when this object was created; these
+ * parameters are also used to compute the variances, as in
+ * {@link OpdfGaussianMixture#fit(java.util.Collection, double[])}.  Only
+ * statistics created by the same mixture (or mixtures with the same
+ * parameters) should be merged.
+ */
+public class OpdfGaussianMixtureStatistics
+implements OpdfStatistics<ObservationReal>
+{
+	private final GaussianDistribution[] distributions;
+	private final double[] proportions;
+	private final double[] delta;
+	private double weight;
+	/* gaussianWeights[i] = sum of weight * delta[i] */
+	private final double[] gaussianWeights;
+	/* sums[i] = sum of weight * delta[i] * value */
+	private final double[] sums;
+	/* squares[i] = sum of weight * delta[i] * (value - old mean i)^2 */
+	private final double[] squares;
+	
+	
+	/**
+	 * Creates an empty statistics object.
+	 *
+	 * @param opdf The mixture to fit.
+	 */
+	public OpdfGaussianMixtureStatistics(OpdfGaussianMixture opdf)
+	{
+		double[] means = opdf.means();
+		double[] variances = opdf.variances();
+		
+		distributions = new GaussianDistribution[means.length];
+		for (int i = 0; i < distributions.length; i++)
+			distributions[i] = new GaussianDistribution(means[i], variances[i]);
+		
+		proportions = opdf.proportions();
+		delta = new double[means.length];
+		weight = 0.;
+		gaussianWeights = new double[means.length];
+		sums = new double[means.length];
+		squares = new double[means.length];
+	}
+	
+	
+	public void accumulate(ObservationReal o, double weight)
+	{
+		double probability = 0.;
+		
+		for (int i = 0; i < distributions.length; i++)
+			probability += delta[i] = 
+				proportions[i] * distributions[i].probability(o.value);
+		
+		for (int i = 0; i < distributions.length; i++) {
+			double w = weight * delta[i] / probability;
+			double d = o.value - distributions[i].mean();
+			
+			gaussianWeights[i] += w;
+			sums[i] += w * o.value;
+			squares[i] += w * d * d;
+		}
+		
+		this.weight += weight;
+	}
+	
+	
+	public void merge(OpdfStatistics<ObservationReal> statistics)
+	{
+		OpdfGaussianMixtureStatistics s = 
+			(OpdfGaussianMixtureStatistics) statistics;
+		
+		if (s.distributions.length != distributions.length)
+			throw new IllegalArgumentException("Incompatible statistics");
+		
+		for (int i = 0; i < distributions.length; i++) {
+			gaussianWeights[i] += s.gaussianWeights[i];
+			sums[i] += s.sums[i];
+			squares[i] += s.squares[i];
+		}
+		
+		weight += s.weight;
+	}
+	
+	
+	public void scale(double factor)
+	{
+		for (int i = 0; i < distributions.length; i++) {
+			gaussianWeights[i] *= factor;
+			sums[i] *= factor;
+			squares[i] *= factor;
+		}
+		
+		weight *= factor;
+	}
+	
+	
+	public double weight()
+	{
+		return weight;
+	}
+	
+	
+	/**
+	 * Returns the number of distributions composing the mixture.
+	 * 
+	 * @return The number of distributions composing the mixture.
+	 */
+	public int nbGaussians()
+	{
+		return distributions.length;
+	}
+	
+	
+	/**
+	 * Returns the new mixing proportions of the distributions.
+	 * 
+	 * @return The estimated mixing proportions.
+	 */
+	public double[] proportions()
+	{
+		double sum = 0.;
+		for (int i = 0; i < distributions.length; i++)
+			sum += gaussianWeights[i];
+		
+		double[] proportions = new double[distributions.length];
+		for (int i = 0; i < distributions.length; i++)
+			proportions[i] = gaussianWeights[i] / sum;
+		
+		return proportions;
+	}
+	
+	
+	/**
+	 * Returns the new mean values of the distributions.
+	 * 
+	 * @return The estimated mean values.
+	 */
+	public double[] means()
+	{
+		double[] means = new double[distributions.length];
+		
+		for (int i = 0; i < distributions.length; i++)
+			means[i] = sums[i] / gaussianWeights[i];
+		
+		return means;
+	}
+	
+	
+	/**
+	 * Returns the new variances of the distributions.
+	 * 
+	 * @return The estimated variances.
+	 */
+	public double[] variances()
+	{
+		double[] variances = new double[distributions.length];
+		
+		for (int i = 0; i < distributions.length; i++)
+			variances[i] = squares[i] / gaussianWeights[i];
+		
+		return variances;
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
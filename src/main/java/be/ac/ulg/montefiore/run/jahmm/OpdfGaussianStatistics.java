@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Accumulates the statistics needed to fit a {@link OpdfGaussian}
+ * distribution: the sum of the weights, the weighted mean and the weighted
+ * sum of squared deviations from the mean of the observations.
+ * <p>
+ * The mean and the sum of squared deviations are updated at each
+ * observation (using <i>West</i>'s weighted version of <i>Welford</i>'s
+ * method), which is far more accurate than accumulating the sum of the
+ * squares of the observations.
+ */
+public class OpdfGaussianStatistics
+implements OpdfStatistics<ObservationReal>
+{
+	private double weight;
+	private double mean;
+	private double m2;
+	
+	
+	/**
+	 * Creates an empty statistics object.
+	 */
+	public OpdfGaussianStatistics()
+	{
+		weight = mean = m2 = 0.;
+	}
+	
+	
+	public void accumulate(ObservationReal o, double weight)
+	{
+		if (weight == 0.)
+			return;
+		
+		this.weight += weight;
+		double d = o.value - mean;
+		mean += d * weight / this.weight;
+		m2 += weight * d * (o.value - mean);
+	}
+	
+	
+	public void merge(OpdfStatistics<ObservationReal> statistics)
+	{
+		OpdfGaussianStatistics s = (OpdfGaussianStatistics) statistics;
+		
+		if (s.weight == 0.)
+			return;
+		
+		double sum = weight + s.weight;
+		double d = s.mean - mean;
+		
+		m2 += s.m2 + d * d * weight * s.weight / sum;
+		mean += d * s.weight / sum;
+		weight = sum;
+	}
+	
+	
+	public void scale(double factor)
+	{
+		/* The mean does not depend on the scale of the weights */
+		weight *= factor;
+		m2 *= factor;
+	}
+	
+	
+	public double weight()
+	{
+		return weight;
+	}
+	
+	
+	/**
+	 * Returns the weighted mean of the observations.
+	 *
+	 * @return The weighted mean of the accumulated observations.
+	 */
+	public double mean()
+	{
+		return mean;
+	}
+	
+	
+	/**
+	 * Returns the weighted variance of the observations, the weights being
+	 * normalized.
+	 *
+	 * @return The weighted variance of the accumulated observations.
+	 */
+	public double variance()
+	{
+		return m2 / weight;
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
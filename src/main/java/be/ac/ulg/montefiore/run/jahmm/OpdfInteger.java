@@ -85,6 +85,12 @@ implements Opdf<ObservationInteger>
 	}
 	
 	
+	public double lnProbability(ObservationInteger o)
+	{
+		return Math.log(probability(o));
+	}
+	
+	
 	public ObservationInteger generate()
 	{	
 		double rand = Math.random();
@@ -139,6 +145,30 @@ implements Opdf<ObservationInteger>
 	}
 	
 	
+	public OpdfIntegerStatistics newStatistics()
+	{
+		return new OpdfIntegerStatistics(probabilities.length);
+	}
+	
+	
+	public void fit(OpdfStatistics<ObservationInteger> statistics)
+	{
+		fit((OpdfIntegerStatistics) statistics);
+	}
+	
+	
+	void fit(OpdfIntegerStatistics statistics)
+	{
+		if (statistics.nbEntries() != probabilities.length)
+			throw new IllegalArgumentException("Incompatible statistics");
+		if (statistics.weight() <= 0.)
+			throw new IllegalArgumentException("Empty observation set");
+		
+		for (int i = 0; i < probabilities.length; i++)
+			probabilities[i] = statistics.count(i) / statistics.weight();
+	}
+	
+	
 	public OpdfInteger clone()
 	{	
 		try {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Accumulates the statistics needed to fit a {@link OpdfInteger}
+ * distribution: the sum of the weights of each possible observation.
+ */
+public class OpdfIntegerStatistics
+implements OpdfStatistics<ObservationInteger>
+{
+	private final double[] counts;
+	private double weight;
+	
+	
+	/**
+	 * Creates an empty statistics object.
+	 *
+	 * @param nbEntries The number of values handled by the distribution
+	 *                  (see {@link OpdfInteger#nbEntries()}).
+	 */
+	public OpdfIntegerStatistics(int nbEntries)
+	{
+		if (nbEntries <= 0) 
+			throw new IllegalArgumentException("Argument must be strictly " +
+					"positive");
+		
+		counts = new double[nbEntries];
+		weight = 0.;
+	}
+	
+	
+	public void accumulate(ObservationInteger o, double weight)
+	{
+		accumulate(o.value, weight);
+	}
+	
+	
+	/**
+	 * Adds an observation to the set described by this object.
+	 *
+	 * @param value The value of the observation.
+	 * @param weight The (positive) weight of the observation.
+	 */
+	void accumulate(int value, double weight)
+	{
+		if (value < 0 || value >= counts.length)
+			throw new IllegalArgumentException("Wrong observation value");
+		
+		counts[value] += weight;
+		this.weight += weight;
+	}
+	
+	
+	public void merge(OpdfStatistics<ObservationInteger> statistics)
+	{
+		merge((OpdfIntegerStatistics) statistics);
+	}
+	
+	
+	void merge(OpdfIntegerStatistics statistics)
+	{
+		if (statistics.counts.length != counts.length)
+			throw new IllegalArgumentException("Incompatible statistics");
+		
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += statistics.counts[i];
+		weight += statistics.weight;
+	}
+	
+	
+	public void scale(double factor)
+	{
+		for (int i = 0; i < counts.length; i++)
+			counts[i] *= factor;
+		weight *= factor;
+	}
+	
+	
+	public double weight()
+	{
+		return weight;
+	}
+	
+	
+	/**
+	 * Returns the number of values handled by the distribution.
+	 *
+	 * @return The number of values handled by the distribution.
+	 */
+	public int nbEntries()
+	{
+		return counts.length;
+	}
+	
+	
+	/**
+	 * Returns the sum of the weights of the observations equal to a given
+	 * value.
+	 *
+	 * @param value A value such that
+	 *        <code>0 &le; value &lt; nbEntries()</code>.
+	 * @return The sum of the weights of the observations equal to
+	 *         <code>value</code>.
+	 */
+	public double count(int value)
+	{
+		return counts[value];
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
@@ -94,6 +94,16 @@ implements Opdf<ObservationVector>
 	}
 	
 	
+	public double lnProbability(ObservationVector o)
+	{
+		if (o.dimension() != distribution.dimension())
+			throw new IllegalArgumentException("Vector has a wrong " +
+			"dimension");
+		
+		return distribution.lnProbability(o.value);
+	}
+	
+	
 	public ObservationVector generate()
 	{
 		return new ObservationVector(distribution.generate());
@@ -160,6 +170,26 @@ implements Opdf<ObservationVector>
 	}
 	
 	
+	public OpdfMultiGaussianStatistics newStatistics()
+	{
+		return new OpdfMultiGaussianStatistics(dimension());
+	}
+	
+	
+	public void fit(OpdfStatistics<ObservationVector> statistics)
+	{
+		OpdfMultiGaussianStatistics s = 
+			(OpdfMultiGaussianStatistics) statistics;
+		
+		if (s.dimension() != dimension())
+			throw new IllegalArgumentException("Incompatible statistics");
+		if (s.weight() <= 0.)
+			throw new IllegalArgumentException("Empty observation set");
+		
+		distribution = new MultiGaussianDistribution(s.mean(), s.covariance());
+	}
+	
+	
 	public OpdfMultiGaussian clone()
 	{
 		try {
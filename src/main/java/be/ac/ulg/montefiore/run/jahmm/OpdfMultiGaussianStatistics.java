@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Accumulates the statistics needed to fit a {@link OpdfMultiGaussian}
+ * distribution: the sum of the weights, the weighted mean vector and the
+ * weighted sum of the outer products of the deviations from the mean.
+ * <p>
+ * As in {@link OpdfGaussianStatistics}, the mean and the deviations are
+ * updated at each observation.
+ */
+public class OpdfMultiGaussianStatistics
+implements OpdfStatistics<ObservationVector>
+{
+	private double weight;
+	private final double[] mean;
+	private final double[][] m2;
+	private final double[] deviation;
+	
+	
+	/**
+	 * Creates an empty statistics object.
+	 *
+	 * @param dimension The dimension of the vectors.
+	 */
+	public OpdfMultiGaussianStatistics(int dimension)
+	{
+		if (dimension <= 0) 
+			throw new IllegalArgumentException("Argument must be strictly " +
+					"positive");
+		
+		weight = 0.;
+		mean = new double[dimension];
+		m2 = new double[dimension][dimension];
+		deviation = new double[dimension];
+	}
+	
+	
+	public void accumulate(ObservationVector o, double weight)
+	{
+		if (o.dimension() != mean.length)
+			throw new IllegalArgumentException("Vector has a wrong " +
+			"dimension");
+		
+		if (weight == 0.)
+			return;
+		
+		this.weight += weight;
+		double ratio = weight / this.weight;
+		
+		for (int r = 0; r < mean.length; r++) {
+			deviation[r] = o.value[r] - mean[r];
+			mean[r] += deviation[r] * ratio;
+		}
+		
+		double factor = weight * (1. - ratio);
+		for (int r = 0; r < mean.length; r++)
+			for (int c = 0; c < mean.length; c++)
+				m2[r][c] += factor * deviation[r] * deviation[c];
+	}
+	
+	
+	public void merge(OpdfStatistics<ObservationVector> statistics)
+	{
+		OpdfMultiGaussianStatistics s = 
+			(OpdfMultiGaussianStatistics) statistics;
+		
+		if (s.mean.length != mean.length)
+			throw new IllegalArgumentException("Incompatible statistics");
+		
+		if (s.weight == 0.)
+			return;
+		
+		double sum = weight + s.weight;
+		double factor = weight * s.weight / sum;
+		
+		for (int r = 0; r < mean.length; r++)
+			deviation[r] = s.mean[r] - mean[r];
+		
+		for (int r = 0; r < mean.length; r++) {
+			for (int c = 0; c < mean.length; c++)
+				m2[r][c] += s.m2[r][c] + factor * deviation[r] * deviation[c];
+			
+			mean[r] += deviation[r] * s.weight / sum;
+		}
+		
+		weight = sum;
+	}
+	
+	
+	public void scale(double factor)
+	{
+		/* The mean does not depend on the scale of the weights */
+		weight *= factor;
+		
+		for (int r = 0; r < mean.length; r++)
+			for (int c = 0; c < mean.length; c++)
+				m2[r][c] *= factor;
+	}
+	
+	
+	public double weight()
+	{
+		return weight;
+	}
+	
+	
+	/**
+	 * Returns the dimension of the vectors.
+	 *
+	 * @return The dimension of the vectors.
+	 */
+	public int dimension()
+	{
+		return mean.length;
+	}
+	
+	
+	/**
+	 * Returns the weighted mean of the observations.
+	 *
+	 * @return A copy of the weighted mean vector of the accumulated
+	 *         observations.
+	 */
+	public double[] mean()
+	{
+		return mean.clone();
+	}
+	
+	
+	/**
+	 * Returns the weighted covariance matrix of the observations, the weights
+	 * being normalized.
+	 *
+	 * @return The weighted covariance matrix of the accumulated observations.
+	 */
+	public double[][] covariance()
+	{
+		double[][] covariance = new double[mean.length][mean.length];
+		
+		for (int r = 0; r < mean.length; r++)
+			for (int c = 0; c < mean.length; c++)
+				covariance[r][c] = m2[r][c] / weight;
+		
+		return covariance;
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
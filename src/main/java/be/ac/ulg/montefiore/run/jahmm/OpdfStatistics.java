@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.io.Serializable;
+
+
+/**
+ * Objects implementing this interface accumulate the (sufficient)
+ * statistics of a weighted set of observations needed to fit an observation
+ * probability (distribution) function.
+ * <p>
+ * The observations are given one at a time, so that a distribution can be
+ * fitted to a set of observations without ever holding them in memory.  The
+ * statistics of disjoint sets of observations (computed by different threads,
+ * for example) can be merged.  Once all the observations have been given,
+ * the statistics are used by {@link Opdf#fit(OpdfStatistics)}.
+ * <p>
+ * A statistics object is created by {@link Opdf#newStatistics()} and can
+ * only be merged with, or fitted to, distributions of the same kind (and
+ * dimension).
+ * <p>
+ * Statistics objects are serializable, so that the statistics computed by
+ * different processes can be merged.
+ */
+public interface OpdfStatistics<O extends Observation>
+extends Serializable
+{
+	/**
+	 * Adds an observation to the set described by this object.
+	 *
+	 * @param o An observation compatible with the distribution that created
+	 *          this object.
+	 * @param weight The (positive) weight of <code>o</code>.  The weights do
+	 *          not have to be normalized.
+	 */
+	public void accumulate(O o, double weight);
+	
+	
+	/**
+	 * Adds the observations described by another statistics object to
+	 * the set described by this object.
+	 *
+	 * @param statistics Statistics created by a distribution of the same kind
+	 *          as the one that created this object.
+	 */
+	public void merge(OpdfStatistics<O> statistics);
+	
+	
+	/**
+	 * Multiplies the weights of the observations described by this object
+	 * by a given factor.  This can be used to give less importance to
+	 * older observations before merging newer ones.
+	 *
+	 * @param factor A positive factor.
+	 */
+	public void scale(double factor);
+	
+	
+	/**
+	 * Returns the sum of the weights of the observations described by this
+	 * object.
+	 *
+	 * @return The sum of the weights of the accumulated observations.
+	 */
+	public double weight();
+}
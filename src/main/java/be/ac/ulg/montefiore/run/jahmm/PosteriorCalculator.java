@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import be.ac.ulg.montefiore.run.jahmm.ForwardBackwardCalculator.Computation;
+
+
+/**
+ * This class computes the probability of each state at each time step given
+ * a whole observation sequence (the <i>gamma</i> array as described in
+ * <i>Rabiner</i> and <i>Juang</i>), and the posterior decoding of the
+ * sequence: the sequence of the most probable state at each time step.
+ * <p>
+ * The probabilities are computed in O(TN) from the scaled <i>alpha</i> and
+ * <i>beta</i> arrays, where <i>T</i> is the length of the sequence and
+ * <i>N</i> the number of states of the HMM.  They can either be kept
+ * (O(TN) memory), or given to a {@link GammaListener} as they are computed,
+ * in which case they are computed by a
+ * {@link ForwardBackwardCheckpointedCalculator} and only O(N sqrt(T)) memory
+ * is used.
+ * <p>
+ * Unlike the state sequence computed by {@link ViterbiCalculator}, the
+ * posterior decoding maximizes the expected number of correct states; it
+ * can contain transitions whose probability is null.
+ */
+public class PosteriorCalculator
+{
+	private final int nbStates;
+	/* gamma[t * nbStates + i] = P(i(t) = i | O); null if not kept */
+	private final double[] gamma;
+	private final int[] stateSequence;
+	/* confidences[t] = P(i(t) = stateSequence[t] | O) */
+	private final double[] confidences;
+	private final double lnProbability;
+	
+	
+	/**
+	 * Computes and keeps the probability of each state at each time step
+	 * given an observation sequence.
+	 *
+	 * @param oseq A non-empty observation sequence.
+	 * @param hmm A Hidden Markov Model.
+	 */
+	public <O extends Observation>
+	PosteriorCalculator(List<? extends O> oseq, Hmm<O> hmm)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		ForwardBackwardScaledCalculator fbsc =
+			new ForwardBackwardScaledCalculator(oseq, hmm,
+					EnumSet.allOf(Computation.class));
+		
+		nbStates = hmm.nbStates();
+		gamma = new double[oseq.size() * nbStates];
+		stateSequence = new int[oseq.size()];
+		confidences = new double[oseq.size()];
+		lnProbability = fbsc.lnProbability();
+		
+		for (int t = 0; t < oseq.size(); t++) {
+			int from = t * nbStates;
+			double sum = 0.;
+			
+			/* The product of the scaled alpha and beta values is proportional
+			 to gamma */
+			for (int i = 0; i < nbStates; i++)
+				sum += gamma[from + i] =
+					fbsc.alphaElement(t, i) * fbsc.betaElement(t, i);
+			
+			for (int i = 0; i < nbStates; i++)
+				gamma[from + i] /= sum;
+			
+			decode(t, gamma, from);
+		}
+	}
+	
+	
+	/**
+	 * Computes the probability of each state at each time step given an
+	 * observation sequence, and gives them to a listener instead of keeping
+	 * them.  The observation sequence must be accessible in O(1).
+	 *
+	 * @param oseq A non-empty observation sequence.
+	 * @param hmm A Hidden Markov Model.
+	 * @param listener An object receiving the <i>gamma</i> values; they are
+	 *        given by decreasing time index.
+	 */
+	public <O extends Observation>
+	PosteriorCalculator(List<? extends O> oseq, Hmm<O> hmm,
+			final GammaListener listener)
+	{
+		if (oseq.isEmpty())
+			throw new IllegalArgumentException("Invalid empty sequence");
+		
+		nbStates = hmm.nbStates();
+		gamma = null;
+		stateSequence = new int[oseq.size()];
+		confidences = new double[oseq.size()];
+		
+		ForwardBackwardCheckpointedCalculator fbcc =
+			new ForwardBackwardCheckpointedCalculator(oseq, hmm, null, null,
+					new GammaListener() {
+				public void gamma(int t, double[] gamma)
+				{
+					decode(t, gamma, 0);
+					listener.gamma(t, gamma);
+				}
+			});
+		
+		lnProbability = fbcc.lnProbability();
+	}
+	
+	
+	/* Sets the most probable state of time t given gamma[from...] */
+	private void decode(int t, double[] gamma, int from)
+	{
+		int state = 0;
+		
+		for (int i = 1; i < nbStates; i++)
+			if (gamma[from + i] > gamma[from + state])
+				state = i;
+		
+		stateSequence[t] = state;
+		confidences[t] = gamma[from + state];
+	}
+	
+	
+	/**
+	 * Returns the probability of being in a given state at a given time
+	 * given the observation sequence.
+	 *
+	 * @param t A time index such that <code>0 &le; t &lt; T</code>, where
+	 *          <code>T</code> is the length of the sequence.
+	 * @param i A state number such that <code>0 &le; i &lt; N</code>.
+	 * @return The <i>gamma</i> array (t, i) element.
+	 * @throws UnsupportedOperationException If the probabilities have been
+	 *         given to a listener instead of being kept.
+	 */
+	public double stateProbability(int t, int i)
+	{
+		if (gamma == null)
+			throw new UnsupportedOperationException("State probabilities " +
+					"have not been kept");
+		
+		return gamma[t * nbStates + i];
+	}
+	
+	
+	/**
+	 * Returns the probability of each state at a given time given the
+	 * observation sequence.
+	 *
+	 * @param t A time index such that <code>0 &le; t &lt; T</code>, where
+	 *          <code>T</code> is the length of the sequence.
+	 * @return A copy of the <code>t</code>-th row of the <i>gamma</i> array.
+	 * @throws UnsupportedOperationException If the probabilities have been
+	 *         given to a listener instead of being kept.
+	 */
+	public double[] stateProbabilities(int t)
+	{
+		if (gamma == null)
+			throw new UnsupportedOperationException("State probabilities " +
+					"have not been kept");
+		
+		double[] probabilities = new double[nbStates];
+		System.arraycopy(gamma, t * nbStates, probabilities, 0, nbStates);
+		
+		return probabilities;
+	}
+	
+	
+	/**
+	 * Returns the sequence of the most probable state at each time step.
+	 *
+	 * @return The state sequence; the i-th value of the array is the index
+	 *         of the state whose probability is the highest at time i.
+	 */
+	public int[] stateSequence()
+	{
+		return stateSequence.clone();
+	}
+	
+	
+	/**
+	 * Returns the probability of each state of the sequence returned by
+	 * {@link #stateSequence()}.  These can be used as confidence scores of
+	 * the decoding.
+	 *
+	 * @return An array whose <code>t</code>-th element is the probability
+	 *         of being in the <code>t</code>-th state of the posterior
+	 *         decoding at time <code>t</code>, given the observation
+	 *         sequence.
+	 */
+	public double[] confidences()
+	{
+		return confidences.clone();
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the observation
+	 * sequence.
+	 *
+	 * @return <code>ln(P[O|H])</code>, where <code>O</code> is the given
+	 *         observation sequence and <code>H</code> the given HMM.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Handles a (possibly very large) set of observation sequences by groups,
+ * possibly in parallel, as done by the {@link BatchCalculator} and the
+ * learning algorithms.
+ * <p>
+ * The sequences are divided in groups holding at least a few thousand
+ * observations, so that each task is long enough compared to the cost of
+ * handing it to another thread.  The groups only depend on the sequences,
+ * and their results are always given in the order of the sequences, so that
+ * the final result does not depend on the number of threads.  Only a
+ * bounded number of groups are waiting to be handled at any time, so that
+ * the sequences can be read from a stream as they are needed.
+ */
+public final class SequenceGroups
+{
+	/* The minimal number of observations of a group (but the last one) */
+	private static final int GROUP_LENGTH = 2048;
+	
+	
+	private SequenceGroups()
+	{
+	}
+	
+	
+	/**
+	 * Computes the result of a group of sequences, and gathers the results
+	 * of all the groups.
+	 */
+	public interface Handler<O extends Observation, R>
+	{
+		/**
+		 * Computes the result of a group of sequences.  This method can be
+		 * called by several threads at the same time.
+		 *
+		 * @param first The index of the first sequence of the group in the
+		 *        set of sequences.
+		 * @param group The (non-empty) group of sequences.
+		 * @return The result of the group.
+		 */
+		public R compute(int first, List<List<? extends O>> group);
+		
+		
+		/**
+		 * Adds the result of a group to the results of the previous groups.
+		 * This method is called by the thread calling
+		 * {@link SequenceGroups#run}, in the order of the groups.
+		 *
+		 * @param result The result of a group.
+		 */
+		public void add(R result);
+	}
+	
+	
+	/**
+	 * Divides a set of sequences in groups and handles each group.  If the
+	 * iterator of the sequences is {@link Closeable}, it is closed when this
+	 * method returns, even if a group fails.
+	 *
+	 * @param sequences A set of observation sequences.
+	 * @param handler The object computing and gathering the results of the
+	 *        groups.
+	 * @param executor The executor used to compute the results of the
+	 *        groups, or <code>null</code> if they must be computed by the
+	 *        calling thread.
+	 * @param maxPending The (strictly positive) maximum number of groups
+	 *        handed to the executor but whose result has not been added.
+	 */
+	public static <O extends Observation, R> void
+	run(Iterable<? extends List<? extends O>> sequences,
+			final Handler<O, R> handler, ExecutorService executor,
+			int maxPending)
+	{
+		Iterator<? extends List<? extends O>> iterator = sequences.iterator();
+		try {
+			run(iterator, handler, executor, maxPending);
+		} finally {
+			/* The iteration stops early if a group fails */
+			if (iterator instanceof Closeable)
+				try {
+					((Closeable) iterator).close();
+				} catch (IOException e) {
+				}
+		}
+	}
+	
+	
+	private static <O extends Observation, R> void
+	run(Iterator<? extends List<? extends O>> iterator,
+			final Handler<O, R> handler, ExecutorService executor,
+			int maxPending)
+	{
+		LinkedList<Future<R>> pending = new LinkedList<Future<R>>();
+		
+		List<List<? extends O>> group = new ArrayList<List<? extends O>>();
+		int groupLength = 0;
+		int first = 0;
+		
+		while (iterator.hasNext()) {
+			List<? extends O> sequence = iterator.next();
+			group.add(sequence);
+			groupLength += sequence.size();
+			
+			if (groupLength < GROUP_LENGTH && iterator.hasNext())
+				continue;
+			
+			if (executor == null)
+				handler.add(handler.compute(first, group));
+			else {
+				final int f = first;
+				final List<List<? extends O>> g = group;
+				
+				pending.add(executor.submit(new Callable<R>() {
+					public R call()
+					{
+						return handler.compute(f, g);
+					}
+				}));
+				
+				/* Bounds the number of groups waiting to be added */
+				if (pending.size() >= maxPending)
+					handler.add(get(pending.removeFirst()));
+			}
+			
+			first += group.size();
+			group = new ArrayList<List<? extends O>>();
+			groupLength = 0;
+		}
+		
+		while (!pending.isEmpty())
+			handler.add(get(pending.removeFirst()));
+	}
+	
+	
+	/**
+	 * Waits for the result of a task.  The exceptions thrown by the task are
+	 * thrown again (wrapped in a <code>RuntimeException</code> if they are
+	 * checked).
+	 *
+	 * @param future The result of a task.
+	 * @return The value computed by the task.
+	 */
+	public static <T> T get(Future<T> future)
+	{
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	
+	/**
+	 * Creates the executor used to handle sequences using a given number of
+	 * threads.
+	 *
+	 * @param nbThreads The number of threads.
+	 * @return A new executor, or <code>null</code> if the sequences must be
+	 *         handled by the calling thread (<i>i.e.</i> if
+	 *         <code>nbThreads</code> is lower or equal to 1).  The caller
+	 *         must shut it down.
+	 */
+	public static ExecutorService newExecutor(int nbThreads)
+	{
+		if (nbThreads <= 1)
+			return null;
+		
+		return Executors.newFixedThreadPool(nbThreads);
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+import java.io.Serializable;
+
+
+/*
+ * A transition matrix where only the transitions of a fixed set (the
+ * structure) are stored.  The transitions are stored row by row (each state
+ * is followed by its successors) and indexed column by column (each state is
+ * preceded by its predecessors), so that the algorithms summing over the
+ * successors or the predecessors of a state only visit the transitions of
+ * the structure.
+ *
+ * The structure arrays are never modified once built, and are shared by the
+ * copies of this object.  The meaning of the values depends on the user:
+ * probabilities for Hmm, logarithms of probabilities for LogHmm.
+ */
+final class SparseTransitions
+implements Serializable
+{
+	final int nbStates;
+	/* The successors of state i are columns[rowStart[i]] to
+	 columns[rowStart[i+1] - 1], by increasing state number; values[k] is the
+	 value of the transition going from i to columns[k] */
+	final int[] rowStart;
+	final int[] columns;
+	final double[] values;
+	/* The predecessors of state j are rows[columnStart[j]] to
+	 rows[columnStart[j+1] - 1], by increasing state number; the value of the
+	 transition going from rows[k] to j is values[positions[k]] */
+	final int[] columnStart;
+	final int[] rows;
+	final int[] positions;
+	
+	
+	/*
+	 * Builds the transitions matching the elements of a row-major matrix
+	 * (a[i * nbStates + j] is the value of the transition going from i to j)
+	 * that are different from a given value.
+	 */
+	SparseTransitions(int nbStates, double[] a, double zero)
+	{
+		this.nbStates = nbStates;
+		rowStart = new int[nbStates + 1];
+		columnStart = new int[nbStates + 1];
+		
+		int nb = 0;
+		for (int i = 0; i < nbStates; i++) {
+			rowStart[i] = nb;
+			
+			for (int j = 0; j < nbStates; j++)
+				if (a[i * nbStates + j] != zero) {
+					columnStart[j + 1]++;
+					nb++;
+				}
+		}
+		rowStart[nbStates] = nb;
+		
+		for (int j = 0; j < nbStates; j++)
+			columnStart[j + 1] += columnStart[j];
+		
+		columns = new int[nb];
+		values = new double[nb];
+		rows = new int[nb];
+		positions = new int[nb];
+		
+		int[] next = columnStart.clone();
+		int k = 0;
+		for (int i = 0; i < nbStates; i++)
+			for (int j = 0; j < nbStates; j++) {
+				double value = a[i * nbStates + j];
+				
+				if (value != zero) {
+					columns[k] = j;
+					values[k] = value;
+					rows[next[j]] = i;
+					positions[next[j]++] = k++;
+				}
+			}
+	}
+	
+	
+	/*
+	 * Builds the transitions given row by row: the transitions leaving state
+	 * i are those whose index k is in [rowStart[i], rowStart[i+1][, and the
+	 * k-th transition goes to columns[k] with value values[k].  The
+	 * successors of each state must be sorted by increasing state number.
+	 * The arrays are copied.
+	 */
+	SparseTransitions(int nbStates, int[] rowStart, int[] columns,
+			double[] values)
+	{
+		int nb = columns.length;
+		
+		if (rowStart.length != nbStates + 1 || rowStart[0] != 0 ||
+				rowStart[nbStates] != nb || values.length != nb)
+			throw new IllegalArgumentException("Wrong sparse matrix " +
+					"dimensions");
+		
+		this.nbStates = nbStates;
+		this.rowStart = rowStart.clone();
+		this.columns = columns.clone();
+		this.values = values.clone();
+		columnStart = new int[nbStates + 1];
+		
+		for (int i = 0; i < nbStates; i++) {
+			if (rowStart[i] > rowStart[i + 1])
+				throw new IllegalArgumentException("Wrong row start");
+			
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				if (columns[k] < 0 || columns[k] >= nbStates ||
+						(k > rowStart[i] && columns[k] <= columns[k - 1]))
+					throw new IllegalArgumentException("Wrong column " +
+							"number");
+				columnStart[columns[k] + 1]++;
+			}
+		}
+		
+		for (int j = 0; j < nbStates; j++)
+			columnStart[j + 1] += columnStart[j];
+		
+		rows = new int[nb];
+		positions = new int[nb];
+		
+		int[] next = columnStart.clone();
+		for (int i = 0; i < nbStates; i++)
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				int j = columns[k];
+				
+				rows[next[j]] = i;
+				positions[next[j]++] = k;
+			}
+	}
+	
+	
+	/*
+	 * Builds transitions with the same structure as another object; the
+	 * values are copied from the array given.
+	 */
+	SparseTransitions(SparseTransitions structure, double[] values)
+	{
+		nbStates = structure.nbStates;
+		rowStart = structure.rowStart;
+		columns = structure.columns;
+		columnStart = structure.columnStart;
+		rows = structure.rows;
+		positions = structure.positions;
+		this.values = values.clone();
+	}
+	
+	
+	/* Returns the index of the transition from i to j in values, or -1 */
+	int index(int i, int j)
+	{
+		int low = rowStart[i], high = rowStart[i + 1] - 1;
+		
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			
+			if (columns[middle] < j)
+				low = middle + 1;
+			else if (columns[middle] > j)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		
+		return -1;
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Objects implementing this interface receive, one time step at a time,
+ * the states of a state sequence as soon as they have been decided (see
+ * {@link OnlineViterbiCalculator}).
+ */
+public interface StateListener
+{
+	/**
+	 * Called once for each element of an observation sequence, by
+	 * increasing time index.
+	 *
+	 * @param t The index of the observation in the sequence.
+	 * @param stateNb The number of the state associated to the observation.
+	 */
+	public void state(long t, int stateNb);
+}
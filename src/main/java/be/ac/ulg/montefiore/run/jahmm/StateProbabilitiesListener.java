@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm;
+
+
+/**
+ * Objects implementing this interface receive, one time step at a time,
+ * the probability of each state of an HMM for the observations of a
+ * (possibly unbounded) stream (see {@link FixedLagSmoother}).
+ */
+public interface StateProbabilitiesListener
+{
+	/**
+	 * Called once for each element of an observation stream, by increasing
+	 * time index.
+	 *
+	 * @param t The index of the observation in the stream.
+	 * @param probabilities An array such that <code>probabilities[i]</code>
+	 *              is the probability of being in state <code>i</code> at
+	 *              time <code>t</code>.  This array is reused by the caller
+	 *              and must be copied if needed after this method returns.
+	 */
+	public void stateProbabilities(long t, double[] probabilities);
+}
@@ -5,7 +5,6 @@
 
 package be.ac.ulg.montefiore.run.jahmm;
 
-import java.util.Iterator;
 import java.util.List;
 
 
@@ -17,10 +16,15 @@ public class ViterbiCalculator
 {	
 	/*
 	 * The psy and delta values, as described in Rabiner and Juand classical
-	 * papers.
+	 * papers.  Only the delta values of the current and previous time steps
+	 * are kept; delta[i] = ln(delta_t(i)).
 	 */
-	private double[][] delta; 
+	private double[] delta;
+	private double[] previousDelta;
 	private int[][] psy;
+	/* lnEmissions[t * nbStates + i] = ln(P(O(t+1) | i(t+1) = i+1)) */
+	private double[] lnEmissions;
+	private int nbStates;
 	private int[] stateSequence;
 	private double lnProbability;
 	
@@ -34,44 +38,61 @@ public class ViterbiCalculator
 	 */
 	public <O extends Observation> 
 	ViterbiCalculator(List<? extends O> oseq, Hmm<O> hmm)
+	{
+		this(oseq, hmm.logView());
+	}
+	
+	
+	/**
+	 * Computes the most likely state sequence matching an observation
+	 * sequence given the logarithmic view of an HMM.  The same view can be
+	 * used to decode any number of sequences.
+	 *
+	 * @param hmm The logarithmic view of a Hidden Markov Model;
+	 * @param oseq An observations sequence.
+	 */
+	public <O extends Observation> 
+	ViterbiCalculator(List<? extends O> oseq, LogHmm<O> hmm)
 	{
 		if (oseq.isEmpty())
 			throw new IllegalArgumentException("Invalid empty sequence");
 		
-		delta = new double[oseq.size()][hmm.nbStates()];
-		psy = new int[oseq.size()][hmm.nbStates()];
+		nbStates = hmm.nbStates();
+		delta = new double[nbStates];
+		previousDelta = new double[nbStates];
+		psy = new int[oseq.size()][nbStates];
 		stateSequence = new int[oseq.size()];
+		lnEmissions = new double[oseq.size() * nbStates];
 		
-		for (int i = 0; i < hmm.nbStates(); i++) {
-			delta[0][i] = -Math.log(hmm.getPi(i)) - 
-			Math.log(hmm.getOpdf(i).probability(oseq.get(0)));
+		int t = 0;
+		for (O observation : oseq)
+			hmm.lnEmissions(observation, lnEmissions, nbStates * t++);
+		
+		for (int i = 0; i < nbStates; i++) {
+			delta[i] = hmm.lnPi[i] + lnEmissions[i];
 			psy[0][i] = 0;
 		}
 		
-		Iterator<? extends O> oseqIterator = oseq.iterator();
-		if (oseqIterator.hasNext())
-			oseqIterator.next();
-		
-		int t = 1;
-		while (oseqIterator.hasNext()) {
-			O observation = oseqIterator.next();
+		for (t = 1; t < oseq.size(); t++) {
+			double[] tmp = previousDelta;
+			previousDelta = delta;
+			delta = tmp;
 			
-			for (int i = 0; i < hmm.nbStates(); i++)
-				computeStep(hmm, observation, t, i);
-			
-			t++;
+			for (int j = 0; j < nbStates; j++)
+				computeStep(hmm, t, j);
 		}
 		
-		lnProbability = Double.MAX_VALUE;
-		for (int i = 0; i < hmm.nbStates(); i++) {
-			double thisProbability = delta[oseq.size()-1][i];
+		lnEmissions = null;
+		
+		lnProbability = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < nbStates; i++) {
+			double thisProbability = delta[i];
 			
-			if (lnProbability > thisProbability) {
+			if (lnProbability < thisProbability) {
 				lnProbability = thisProbability;
 				stateSequence[oseq.size() - 1] = i;
 			}
 		}
-		lnProbability = -lnProbability;
 		
 		for (int t2 = oseq.size() - 2; t2 >= 0; t2--)
 			stateSequence[t2] = psy[t2+1][stateSequence[t2+1]];
@@ -79,25 +100,44 @@ public class ViterbiCalculator
 	
 	
 	/*
-	 * Computes delta and psy[t][j] (t > 0) 
+	 * Computes delta and psy[t][j] (t > 0).  The column of the transition
+	 * matrix leading to j is contiguous; only the predecessors of j are
+	 * visited if the HMM is sparse.
 	 */
-	private <O extends Observation> void
-	computeStep(Hmm<O> hmm, O o, int t, int j) 
+	private void computeStep(LogHmm<?> hmm, int t, int j) 
 	{
-		double minDelta = Double.MAX_VALUE;
-		int min_psy = 0;
+		double maxDelta = Double.NEGATIVE_INFINITY;
+		int max_psy = 0;
 		
-		for (int i = 0; i < hmm.nbStates(); i++) {
-			double thisDelta = delta[t-1][i] - Math.log(hmm.getAij(i, j));
+		if (hmm.isSparse()) {
+			SparseTransitions lnA = hmm.lnTransitions();
+			
+			for (int k = lnA.columnStart[j]; k < lnA.columnStart[j+1]; k++) {
+				int i = lnA.rows[k];
+				double thisDelta = previousDelta[i] +
+				lnA.values[lnA.positions[k]];
+				
+				if (maxDelta < thisDelta) {
+					maxDelta = thisDelta;
+					max_psy = i;
+				}
+			}
+		} else {
+			double[] lnA = hmm.lnATransposed;
+			int column = j * nbStates;
 			
-			if (minDelta > thisDelta) {
-				minDelta = thisDelta;
-				min_psy = i;
+			for (int i = 0; i < nbStates; i++) {
+				double thisDelta = previousDelta[i] + lnA[column + i];
+				
+				if (maxDelta < thisDelta) {
+					maxDelta = thisDelta;
+					max_psy = i;
+				}
 			}
 		}
 		
-		delta[t][j] = minDelta - Math.log(hmm.getOpdf(j).probability(o));
-		psy[t][j] = min_psy;
+		delta[j] = maxDelta + lnEmissions[t * nbStates + j];
+		psy[t][j] = max_psy;
 	}
 	
 	
@@ -18,6 +18,8 @@ abstract class ActionHandler
 		PRINT("print", PrintActionHandler.class),
 		CREATE("create", CreateActionHandler.class),
 		BW("learn-bw", BWActionHandler.class),
+		BW_ESTIMATE("learn-bw-estimate", BWEstimateActionHandler.class),
+		BW_MERGE("learn-bw-merge", BWMergeActionHandler.class),
 		KMEANS("learn-kmeans", KMeansActionHandler.class),
 		GENERATE("generate", GenerateActionHandler.class),
 		KL("distance-kl", KLActionHandler.class);
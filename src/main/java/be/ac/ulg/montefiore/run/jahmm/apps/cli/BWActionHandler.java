@@ -12,6 +12,7 @@ import be.ac.ulg.montefiore.run.jahmm.Opdf;
 import be.ac.ulg.montefiore.run.jahmm.apps.cli.CommandLineArguments.Arguments;
 import be.ac.ulg.montefiore.run.jahmm.io.*;
 import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchLearner;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchListener;
 import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchScaledLearner;
 
 import java.io.*;
@@ -34,38 +35,117 @@ extends ActionHandler
 				Arguments.OUT_HMM,
 				Arguments.IN_HMM,
 				Arguments.IN_SEQ,
-				Arguments.NB_ITERATIONS);
+				Arguments.NB_ITERATIONS,
+				Arguments.CONVERGENCE_THRESHOLD,
+				Arguments.PROGRESS,
+				Arguments.NB_THREADS);
 		CommandLineArguments.checkArgs(args);
 		
 		int nbIterations = Arguments.NB_ITERATIONS.getAsInt();
+		if (nbIterations < 0)
+			throw new WrongArgumentsException("Positive number of " +
+					"iterations expected");
+		double threshold = Arguments.CONVERGENCE_THRESHOLD.getAsDouble();
+		if (!(threshold >= 0.))
+			throw new WrongArgumentsException("Positive convergence " +
+					"threshold expected");
+		int nbThreads = Arguments.NB_THREADS.getAsInt();
+		if (nbThreads <= 0)
+			throw new WrongArgumentsException("Strictly positive number of " +
+					"threads expected");
 		OutputStream outStream = Arguments.OUT_HMM.getAsOutputStream();
 		Writer hmmWriter = new OutputStreamWriter(outStream);
 		InputStream hmmStream = Arguments.IN_HMM.getAsInputStream();
-		InputStream seqStream = Arguments.IN_SEQ.getAsInputStream();
 		Reader hmmReader = new InputStreamReader(hmmStream, Cli.CHARSET);
-		Reader seqReader = new InputStreamReader(seqStream, Cli.CHARSET);
+		PrintWriter progressWriter = null;
+		if (!Arguments.PROGRESS.get().equals(Arguments.PROGRESS.getDefault()))
+			progressWriter = new PrintWriter(new OutputStreamWriter(
+					Arguments.PROGRESS.getAsOutputStream(), Cli.CHARSET), true);
 		
-		learn(Types.relatedObjs(), hmmReader, seqReader, hmmWriter,
-				nbIterations);
+		learn(Types.relatedObjs(), hmmReader, hmmWriter,
+				nbIterations, threshold, progressWriter, nbThreads);
 		
 		hmmWriter.flush();
+		if (progressWriter != null)
+			progressWriter.flush();
 	}
 	
 	
 	private <O extends Observation & CentroidFactory<O>> void
 	learn(RelatedObjs<O> relatedObjs, Reader hmmFileReader,
-			Reader seqFileReader, Writer hmmFileWriter,
-			int nbIterations)
-	throws IOException, FileFormatException
+			Writer hmmFileWriter, int nbIterations, double threshold,
+			final PrintWriter progressWriter, int nbThreads)
+	throws IOException, FileFormatException, WrongArgumentsException
 	{
-		List<List<O>> seqs = relatedObjs.readSequences(seqFileReader);
+		Iterable<List<O>> seqs = sequences(relatedObjs);
 		OpdfReader<? extends Opdf<O>> opdfReader = relatedObjs.opdfReader();
 		OpdfWriter<? extends Opdf<O>> opdfWriter = relatedObjs.opdfWriter();
 		
 		Hmm<O> initHmm = HmmReader.read(hmmFileReader, opdfReader);
 		BaumWelchLearner bw = new BaumWelchScaledLearner();
 		bw.setNbIterations(nbIterations);
-		Hmm<O> hmm = bw.learn(initHmm, seqs);
+		bw.setConvergenceThreshold(threshold);
+		bw.setNbThreads(nbThreads);
+		
+		if (progressWriter != null)
+			bw.setListener(new BaumWelchListener() {
+				public void iteration(int iteration, double lnProbability,
+						long expectationTime, long maximizationTime,
+						long totalTime)
+				{
+					progressWriter.println("Iteration " + iteration +
+							": log-likelihood " + lnProbability +
+							", E-step " + expectationTime / 1000000 + " ms" +
+							", M-step " + maximizationTime / 1000000 + " ms" +
+							", total " + totalTime / 1000000 + " ms");
+				}
+			});
+		
+		Hmm<O> hmm;
+		try {
+			hmm = bw.learn(initHmm, seqs);
+		} catch (RuntimeException e) {
+			throw readError(e);
+		}
 		HmmWriter.write(hmmFileWriter, opdfWriter, hmm);
 	}
+	
+	
+	/*
+	 * Returns the sequences given by the '-is' argument.  A sequences file is
+	 * read again each time the sequences are iterated over instead of being
+	 * kept in memory; the standard input can only be read once.
+	 */
+	static <O extends Observation & CentroidFactory<O>> Iterable<List<O>>
+	sequences(RelatedObjs<O> relatedObjs)
+	throws IOException, FileFormatException, WrongArgumentsException
+	{
+		if (Arguments.IN_SEQ.get().equals("-"))
+			return relatedObjs.readSequences(new InputStreamReader(
+					Arguments.IN_SEQ.getAsInputStream(), Cli.CHARSET));
+		
+		File seqFile = new File(Arguments.IN_SEQ.get());
+		if (!seqFile.canRead())
+			throw new FileNotFoundException("Cannot read file '" + seqFile +
+					"'");
+		
+		return new ObservationSequencesFile<O>(seqFile, Cli.CHARSET,
+				relatedObjs.observationReader());
+	}
+	
+	
+	/*
+	 * Throws the error met while reading a sequences file which caused an
+	 * exception, if any; otherwise, returns the exception.
+	 */
+	static RuntimeException readError(RuntimeException e)
+	throws IOException, FileFormatException
+	{
+		if (e.getCause() instanceof IOException)
+			throw (IOException) e.getCause();
+		if (e.getCause() instanceof FileFormatException)
+			throw (FileFormatException) e.getCause();
+		
+		return e;
+	}
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.apps.cli;
+
+import be.ac.ulg.montefiore.run.jahmm.CentroidFactory;
+import be.ac.ulg.montefiore.run.jahmm.Hmm;
+import be.ac.ulg.montefiore.run.jahmm.Observation;
+import be.ac.ulg.montefiore.run.jahmm.Opdf;
+import be.ac.ulg.montefiore.run.jahmm.apps.cli.CommandLineArguments.Arguments;
+import be.ac.ulg.montefiore.run.jahmm.io.*;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchLearner;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchScaledLearner;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchStatistics;
+
+import java.io.*;
+import java.util.EnumSet;
+import java.util.List;
+
+
+/**
+ * Applies the expectation step of one iteration of the Baum-Welch learning
+ * algorithm to a set of sequences and writes the resulting statistics.  The
+ * statistics of several sets of sequences can then be merged by
+ * {@link BWMergeActionHandler}.
+ * <p>
+ * The statistics are simply serialized; they could thus be unreadable using
+ * a different release of this library.
+ */
+class BWEstimateActionHandler
+extends ActionHandler
+{
+	public void act()
+	throws IOException, FileFormatException,
+	AbnormalTerminationException
+	{
+		EnumSet<Arguments> args = EnumSet.of(
+				Arguments.OPDF,
+				Arguments.IN_HMM,
+				Arguments.IN_SEQ,
+				Arguments.OUT_STATS,
+				Arguments.NB_THREADS);
+		CommandLineArguments.checkArgs(args);
+		
+		int nbThreads = Arguments.NB_THREADS.getAsInt();
+		if (nbThreads <= 0)
+			throw new WrongArgumentsException("Strictly positive number of " +
+					"threads expected");
+		InputStream hmmStream = Arguments.IN_HMM.getAsInputStream();
+		Reader hmmReader = new InputStreamReader(hmmStream, Cli.CHARSET);
+		OutputStream statsStream = Arguments.OUT_STATS.getAsOutputStream();
+		
+		estimate(Types.relatedObjs(), hmmReader, statsStream, nbThreads);
+		
+		statsStream.flush();
+	}
+	
+	
+	private <O extends Observation & CentroidFactory<O>> void
+	estimate(RelatedObjs<O> relatedObjs, Reader hmmFileReader,
+			OutputStream statsStream, int nbThreads)
+	throws IOException, FileFormatException, WrongArgumentsException
+	{
+		Iterable<List<O>> seqs = BWActionHandler.sequences(relatedObjs);
+		OpdfReader<? extends Opdf<O>> opdfReader = relatedObjs.opdfReader();
+		
+		Hmm<O> hmm = HmmReader.read(hmmFileReader, opdfReader);
+		BaumWelchLearner bw = new BaumWelchScaledLearner();
+		bw.setNbThreads(nbThreads);
+		
+		BaumWelchStatistics<O> statistics;
+		try {
+			statistics = bw.estimate(hmm, seqs);
+		} catch (RuntimeException e) {
+			throw BWActionHandler.readError(e);
+		}
+		
+		ObjectOutputStream oos = new ObjectOutputStream(statsStream);
+		oos.writeObject(statistics);
+		oos.flush();
+	}
+}
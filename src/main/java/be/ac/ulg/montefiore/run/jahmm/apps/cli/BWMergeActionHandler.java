@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.apps.cli;
+
+import be.ac.ulg.montefiore.run.jahmm.CentroidFactory;
+import be.ac.ulg.montefiore.run.jahmm.Hmm;
+import be.ac.ulg.montefiore.run.jahmm.Observation;
+import be.ac.ulg.montefiore.run.jahmm.Opdf;
+import be.ac.ulg.montefiore.run.jahmm.apps.cli.CommandLineArguments.Arguments;
+import be.ac.ulg.montefiore.run.jahmm.io.*;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchLearner;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchScaledLearner;
+import be.ac.ulg.montefiore.run.jahmm.learn.BaumWelchStatistics;
+
+import java.io.*;
+import java.util.EnumSet;
+
+
+/**
+ * Merges the statistics written by {@link BWEstimateActionHandler} and
+ * applies the maximization step of the Baum-Welch learning algorithm,
+ * completing one iteration over all the sets of sequences.
+ */
+class BWMergeActionHandler
+extends ActionHandler
+{
+	public void act()
+	throws IOException, FileFormatException,
+	AbnormalTerminationException
+	{
+		EnumSet<Arguments> args = EnumSet.of(
+				Arguments.OPDF,
+				Arguments.IN_HMM,
+				Arguments.IN_STATS,
+				Arguments.OUT_HMM,
+				Arguments.PROGRESS);
+		CommandLineArguments.checkArgs(args);
+		
+		/* The statistics files are separated like the elements of a path */
+		String[] statsFileNames =
+			Arguments.IN_STATS.get().split(File.pathSeparator);
+		InputStream hmmStream = Arguments.IN_HMM.getAsInputStream();
+		Reader hmmReader = new InputStreamReader(hmmStream, Cli.CHARSET);
+		OutputStream outStream = Arguments.OUT_HMM.getAsOutputStream();
+		Writer hmmWriter = new OutputStreamWriter(outStream);
+		PrintWriter progressWriter = null;
+		if (!Arguments.PROGRESS.get().equals(Arguments.PROGRESS.getDefault()))
+			progressWriter = new PrintWriter(new OutputStreamWriter(
+					Arguments.PROGRESS.getAsOutputStream(), Cli.CHARSET), true);
+		
+		merge(Types.relatedObjs(), hmmReader, statsFileNames, hmmWriter,
+				progressWriter);
+		
+		hmmWriter.flush();
+		if (progressWriter != null)
+			progressWriter.flush();
+	}
+	
+	
+	private <O extends Observation & CentroidFactory<O>> void
+	merge(RelatedObjs<O> relatedObjs, Reader hmmFileReader,
+			String[] statsFileNames, Writer hmmFileWriter,
+			PrintWriter progressWriter)
+	throws IOException, FileFormatException
+	{
+		OpdfReader<? extends Opdf<O>> opdfReader = relatedObjs.opdfReader();
+		OpdfWriter<? extends Opdf<O>> opdfWriter = relatedObjs.opdfWriter();
+		
+		Hmm<O> hmm = HmmReader.read(hmmFileReader, opdfReader);
+		BaumWelchStatistics<O> statistics = new BaumWelchStatistics<O>(hmm);
+		
+		for (String statsFileName : statsFileNames) {
+			BaumWelchStatistics<O> s = this.<O>read(statsFileName);
+			String error = "File '" + statsFileName + "' does not hold " +
+				"statistics computed using this HMM";
+			
+			try {
+				statistics.merge(s);
+			} catch (IllegalArgumentException e) { // Wrong dimensions
+				throw new FileFormatException(error);
+			} catch (ClassCastException e) { // Wrong kind of distributions
+				throw new FileFormatException(error);
+			}
+		}
+		
+		if (progressWriter != null)
+			progressWriter.println("Sequences: " + statistics.nbSequences() +
+					", log-likelihood " + statistics.lnProbability());
+		
+		BaumWelchLearner bw = new BaumWelchScaledLearner();
+		HmmWriter.write(hmmFileWriter, opdfWriter,
+				bw.maximize(hmm, statistics));
+	}
+	
+	
+	@SuppressWarnings("unchecked") // Cannot guarantee type safety
+	private <O extends Observation> BaumWelchStatistics<O>
+	read(String statsFileName)
+	throws IOException, FileFormatException
+	{
+		InputStream stream = new BufferedInputStream(
+				new FileInputStream(statsFileName));
+		
+		try {
+			Object statistics = new ObjectInputStream(stream).readObject();
+			
+			if (!(statistics instanceof BaumWelchStatistics))
+				throw new FileFormatException("File '" + statsFileName +
+						"' does not hold Baum-Welch statistics");
+			
+			return (BaumWelchStatistics<O>) statistics;
+		} catch (ClassNotFoundException e) {
+			throw new FileFormatException("File '" + statsFileName +
+					"' does not hold Baum-Welch statistics");
+		} catch (ObjectStreamException e) {
+			throw new FileFormatException("File '" + statsFileName +
+					"' does not hold Baum-Welch statistics");
+		} finally {
+			stream.close();
+		}
+	}
+}
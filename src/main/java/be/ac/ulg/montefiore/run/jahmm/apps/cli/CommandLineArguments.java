@@ -25,12 +25,17 @@ class CommandLineArguments
 		OUT_HMM("-o", "-"),
 		IN_SEQ("-is", ""),
 		OUT_SEQS("-os", "-"),
+		IN_STATS("-istats", ""),
+		OUT_STATS("-ostats", "-"),
 		OPDF("-opdf", "integer", "gaussian", "gaussian_mixture",
 				"multi_gaussian"),
 		INTEGER_RANGE("-r", ""),
 		NB_GAUSSIANS("-ng", ""),
 		VECTOR_DIMENSION("-d", ""),
 		NB_ITERATIONS("-ni", "10"),
+		CONVERGENCE_THRESHOLD("-epsilon", "0"),
+		PROGRESS("-progress", "none"),
+		NB_THREADS("-threads", "1"),
 		NB_STATES("-n", "");
 		
 		final String argString;       // The expected string for the arg
@@ -96,6 +101,21 @@ class CommandLineArguments
 			return i;	
 		}
 		
+		double getAsDouble()
+		throws WrongArgumentsException
+		{
+			double d = Double.NaN;
+			
+			try {
+				d = Double.parseDouble(get());
+			} catch(NumberFormatException e) {
+				throw new WrongArgumentsException("'" + get() +
+				"' is not a number; number expected");
+			}
+			
+			return d;
+		}
+		
 		InputStream getAsInputStream()
 		throws FileNotFoundException, WrongArgumentsException
 		{
@@ -5,6 +5,8 @@
 
 package be.ac.ulg.montefiore.run.jahmm.apps.cli;
 
+import java.io.File;
+
 import be.ac.ulg.montefiore.run.jahmm.apps.cli.CommandLineArguments.Arguments;
 
 
@@ -16,7 +18,8 @@ public class HelpActionHandler extends ActionHandler
 	public void act()
 	{
 		String s = "Usage:\tCli (create|print|learn-kmeans|" +
-		"learn-bw|generate|distance-kl) <arguments>\n" +
+		"learn-bw|learn-bw-estimate|learn-bw-merge|\n\tgenerate|" +
+		"distance-kl) <arguments>\n" +
 		"\tCli -help\n";
 		
 		s += "\nCommand line interface for the Jahmm library.\nThe '-help'" +
@@ -29,6 +32,12 @@ public class HelpActionHandler extends ActionHandler
 		"sequences of observation from a HMM. 'distance-kl' computes a\n" +
 		"stochastic Kullback-Leibler distance between two HMMs.\n";
 		
+		s += "One Baum-Welch iteration can be divided between several " +
+		"processes:\n'learn-bw-estimate' computes the statistics of a set " +
+		"of sequences and\n'learn-bw-merge' builds a new HMM from the " +
+		"statistics of all the sets, which\nmust have been computed using " +
+		"the same HMM.\n";
+		
 		s += "\nMore information can be found at:\n" +
 		"http://www.run.montefiore.ulg.ac.be/~francois/software/jahmm/cli/\n";
 		
@@ -59,6 +68,11 @@ public class HelpActionHandler extends ActionHandler
 		"standard output.\n";
 		s += "-is <input_file>\n\tA sequences input file.\n";
 		
+		s += "-ostats <output_file>\n\tA Baum-Welch statistics output " +
+		"file.  Default is standard output.\n";
+		s += "-istats <input_files>\n\tThe Baum-Welch statistics input " +
+		"files, separated by '" + File.pathSeparator + "'.\n";
+		
 		s += "-ikl <input_file>\n\tAn HMM input file with respect to which " +
 		"a Kullback-Leibler distance can\n\tbe computed.\n";
 		
@@ -66,6 +80,21 @@ public class HelpActionHandler extends ActionHandler
 		"Baum-Welch algorithm.  Default is " +
 		Arguments.NB_ITERATIONS.getDefault() + ".\n";
 		
+		s += "-epsilon <delta>\n\tThe Baum-Welch algorithm stops as soon as an " +
+		"iteration increases the\n\tlogarithm of the probability of the " +
+		"sequences by less than <delta>;\n\t'-ni' is then the maximum " +
+		"number of iterations.  Default is " +
+		Arguments.CONVERGENCE_THRESHOLD.getDefault() + " (fixed\n\tnumber " +
+		"of iterations).\n";
+		
+		s += "-progress <output_file>\n\tA file to which the log-likelihood " +
+		"and timings of each Baum-Welch\n\titeration are written.  Default " +
+		"is " + Arguments.PROGRESS.getDefault() + ".\n";
+		
+		s += "-threads <nb>\n\tThe number of threads used by the " +
+		"Baum-Welch algorithm.  Default is\n\t" +
+		Arguments.NB_THREADS.getDefault() + ".\n";
+		
 		s += "All input (resp. output) file names can be replaced by '-' " +
 		"to mean using\nstandard input (resp. output).\n";
 		
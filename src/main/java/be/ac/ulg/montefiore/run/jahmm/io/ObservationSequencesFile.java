@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.io;
+
+import java.io.*;
+import java.util.*;
+
+import be.ac.ulg.montefiore.run.jahmm.Observation;
+
+
+/**
+ * The observation sequences held by a file, read one at a time.
+ * <p>
+ * Each iteration over this object reads the file again (see
+ * {@link ObservationSequencesReader} for its format), so that the
+ * sequences can be handled any number of times (<i>e.g.</i> once per
+ * iteration of a learning algorithm) while only one of them is held in
+ * memory.
+ * <p>
+ * The iterators cannot throw checked exceptions: if the file cannot be
+ * read, a {@link RuntimeException} whose cause is an {@link IOException}
+ * or a {@link FileFormatException} is thrown.  The file is closed when
+ * its end is reached or when an error occurs.  The iterators are also
+ * {@link Closeable}, so that the file can be closed when the iteration
+ * stops early; the algorithms handling sequences by groups (see
+ * {@link be.ac.ulg.montefiore.run.jahmm.SequenceGroups}) always do so.
+ */
+public class ObservationSequencesFile<O extends Observation>
+implements Iterable<List<O>>
+{
+	private final File file;
+	private final String charsetName;
+	private final ObservationReader<O> observationReader;
+	
+	
+	/**
+	 * Creates an object reading the sequences of a file.
+	 *
+	 * @param file The file holding the sequences.
+	 * @param charsetName The name of the character set of the file.
+	 * @param observationReader The reader of the observations of the
+	 *        sequences.
+	 */
+	public ObservationSequencesFile(File file, String charsetName,
+			ObservationReader<O> observationReader)
+	{
+		this.file = file;
+		this.charsetName = charsetName;
+		this.observationReader = observationReader;
+	}
+	
+	
+	/**
+	 * Returns an iterator reading the sequences from the beginning of the
+	 * file.  The iterator is {@link Closeable}.
+	 *
+	 * @return An iterator over the sequences of the file.
+	 */
+	public Iterator<List<O>> iterator()
+	{
+		InputStream stream = null;
+		Reader reader;
+		
+		try {
+			stream = new FileInputStream(file);
+			reader = new BufferedReader(new InputStreamReader(stream,
+					charsetName));
+		} catch (IOException e) {
+			if (stream != null) // Unknown character set
+				try {
+					stream.close();
+				} catch (IOException f) {
+				}
+			
+			throw new RuntimeException("Cannot open file '" + file + "'", e);
+		}
+		
+		return new SequenceIterator(reader);
+	}
+	
+	
+	private class SequenceIterator
+	implements Iterator<List<O>>, Closeable
+	{
+		private final Reader reader;
+		private final StreamTokenizer st;
+		/* The sequence read in advance, or null at the end of the file */
+		private List<O> next;
+		
+		
+		SequenceIterator(Reader reader)
+		{
+			this.reader = reader;
+			st = new StreamTokenizer(reader);
+			ObservationSequencesReader.initSyntaxTable(st);
+			next = read();
+		}
+		
+		
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+		
+		
+		public List<O> next()
+		{
+			if (next == null)
+				throw new NoSuchElementException();
+			
+			List<O> sequence = next;
+			next = read();
+			
+			return sequence;
+		}
+		
+		
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		
+		/**
+		 * Closes the file; the iterator then has no next sequence.
+		 */
+		public void close()
+		{
+			next = null;
+			
+			try {
+				reader.close();
+			} catch (IOException e) {
+			}
+		}
+		
+		
+		private List<O> read()
+		{
+			try {
+				List<O> sequence = ObservationSequencesReader.
+				readSequence(observationReader, st);
+				
+				if (sequence == null)
+					reader.close();
+				
+				return sequence;
+			} catch (IOException e) {
+				close();
+				throw new RuntimeException("Cannot read file '" + file +
+						"'", e);
+			} catch (FileFormatException e) {
+				close();
+				throw new RuntimeException("Cannot read file '" + file +
+						"'", e);
+			}
+		}
+	}
+}
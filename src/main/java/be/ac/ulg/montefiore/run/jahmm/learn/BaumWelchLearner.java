@@ -6,6 +6,7 @@
 package be.ac.ulg.montefiore.run.jahmm.learn;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import be.ac.ulg.montefiore.run.jahmm.*;
 
@@ -21,6 +22,36 @@ public class BaumWelchLearner
 	 */
 	private int nbIterations = 9;
 	
+	/**
+	 * The {@link #learn} method stops when an iteration increases the
+	 * logarithm of the probability of the sequences by less than this
+	 * value; if it is null, {@link #nbIterations} iterations are done.
+	 */
+	private double convergenceThreshold = 0.;
+	
+	/**
+	 * Number of threads used to handle the sequences.
+	 */
+	private int nbThreads = 1;
+	
+	/**
+	 * The object told about the progress of the {@link #learn} method, or
+	 * <code>null</code>.
+	 */
+	private BaumWelchListener listener = null;
+	
+	/*
+	 * Holds the alpha and beta arrays; each thread reuses its own workspace
+	 * for all the sequences and iterations.
+	 */
+	private final ThreadLocal<ForwardBackwardWorkspace> workspaces = 
+		new ThreadLocal<ForwardBackwardWorkspace>() {
+		protected ForwardBackwardWorkspace initialValue()
+		{
+			return new ForwardBackwardWorkspace();
+		}
+	};
+	
 	
 	/**
 	 * Initializes a Baum-Welch instance. 
@@ -42,122 +73,386 @@ public class BaumWelchLearner
 	 * @return A new, updated HMM.
 	 */
 	public <O extends Observation> Hmm<O>
+	iterate(Hmm<O> hmm, Iterable<? extends List<? extends O>> sequences)
+	{
+		return maximize(hmm, estimate(hmm, sequences));
+	}
+	
+	
+	/**
+	 * Performs one iteration of the Baum-Welch algorithm.  This method is
+	 * kept for the compatibility with the previous releases.
+	 *
+	 * @see #iterate(Hmm, Iterable)
+	 */
+	public <O extends Observation> Hmm<O>
 	iterate(Hmm<O> hmm, List<? extends List<? extends O>> sequences)
-	{		
+	{
+		return iterate(hmm, (Iterable<? extends List<? extends O>>) sequences);
+	}
+	
+	
+	/**
+	 * Performs the expectation step of one iteration of the Baum-Welch
+	 * algorithm.  The sequences can be divided in several sets whose
+	 * statistics are computed separately (possibly by different processes)
+	 * and then merged.
+	 *
+	 * @param hmm A previously estimated HMM.
+	 * @param sequences The observation sequences on which the learning is
+	 *         based.  Each sequence must have a length higher or equal to
+	 *         2.
+	 * @return The statistics of the sequences given <code>hmm</code>.
+	 */
+	public <O extends Observation> BaumWelchStatistics<O>
+	estimate(Hmm<O> hmm, Iterable<? extends List<? extends O>> sequences)
+	{
+		ExecutorService executor = SequenceGroups.newExecutor(nbThreads);
+		
+		try {
+			return estimate(hmm, sequences, executor);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+	
+	
+	/**
+	 * Performs the maximization step of one iteration of the Baum-Welch
+	 * algorithm: builds the HMM maximizing the expected likelihood of the
+	 * sequences described by some statistics.
+	 *
+	 * @param hmm The HMM used to compute <code>statistics</code>.
+	 * @param statistics The statistics of a set of sequences, as computed
+	 *         by {@link #estimate(Hmm, Iterable)} (and possibly merged).
+	 * @return A new, updated HMM.
+	 */
+	public <O extends Observation> Hmm<O>
+	maximize(Hmm<O> hmm, BaumWelchStatistics<O> statistics)
+	{
+		return reestimate(hmm, statistics);
+	}
+	
+	
+	/* Builds the HMM maximizing the expected likelihood given the
+	 statistics computed using hmm; the states which have not been visited
+	 keep their parameters */
+	static <O extends Observation> Hmm<O>
+	reestimate(Hmm<O> hmm, BaumWelchStatistics<O> statistics)
+	{
+		if (statistics.nbStates() != hmm.nbStates())
+			throw new IllegalArgumentException("Incompatible statistics");
+		
 		Hmm<O> nhmm;
 		try {
 			nhmm = hmm.clone();
 		} catch(CloneNotSupportedException e) {
 			throw new InternalError();
 		}
-			
-		/* gamma and xi arrays are those defined by Rabiner and Juang */
-		/* allGamma[n] = gamma array associated to observation sequence n */
-		double allGamma[][][] = new double[sequences.size()][][];
-		
-		/* a[i][j] = aijNum[i][j] / aijDen[i]
-		 * aijDen[i] = expected number of transitions from state i
-		 * aijNum[i][j] = expected number of transitions from state i to j
-		 */
-		double aijNum[][] = new double[hmm.nbStates()][hmm.nbStates()];
-		double aijDen[] = new double[hmm.nbStates()];
-		
-		Arrays.fill(aijDen, 0.);
-		for (int i = 0; i < hmm.nbStates(); i++)
-			Arrays.fill(aijNum[i], 0.);
 		
-		int g = 0;
-		for (List<? extends O> obsSeq : sequences) {	    
-			ForwardBackwardCalculator fbc = 
-				generateForwardBackwardCalculator(obsSeq, hmm);
-			
-			double xi[][][] = estimateXi(obsSeq, fbc, hmm);
-			double gamma[][] = allGamma[g++] = estimateGamma(xi, fbc);
-			
-			for (int i = 0; i < hmm.nbStates(); i++)
-				for (int t = 0; t < obsSeq.size() - 1; t++) {
-					aijDen[i] += gamma[t][i];
-					
-					for (int j = 0; j < hmm.nbStates(); j++)
-						aijNum[i][j] += xi[t][i][j];
-				}
-		}
+		/* a[i][j] = aijNum[i][k] / aijDen[i], j being the k-th successor of
+		 i; the transitions not allowed by a sparse HMM stay null */
+		double aijNum[][] = statistics.aijNum;
+		double aijDen[] = statistics.aijDen;
 		
 		for (int i = 0; i < hmm.nbStates(); i++) {
 			if (aijDen[i] == 0.) // State i is not reachable
-				for (int j = 0; j < hmm.nbStates(); j++)
-					nhmm.setAij(i, j, hmm.getAij(i, j));
+				for (int k = 0; k < hmm.nbSuccessors(i); k++)
+					nhmm.setAij(i, hmm.successor(i, k),
+							hmm.getAij(i, hmm.successor(i, k)));
 			else
-				for (int j = 0; j < hmm.nbStates(); j++)
-					nhmm.setAij(i, j, aijNum[i][j] / aijDen[i]);
+				for (int k = 0; k < hmm.nbSuccessors(i); k++)
+					nhmm.setAij(i, hmm.successor(i, k),
+							aijNum[i][k] / aijDen[i]);
 		}
 		
-		/* pi computation */
+		/* pi computation; the sum of piNum is the number of sequences,
+		 unless the statistics have been scaled */
+		double piDen = 0.;
 		for (int i = 0; i < hmm.nbStates(); i++)
-			nhmm.setPi(i, 0.);
-		
-		for (int o = 0; o < sequences.size(); o++)
-			for (int i = 0; i < hmm.nbStates(); i++)
-				nhmm.setPi(i,
-						nhmm.getPi(i) + allGamma[o][0][i] / sequences.size());
+			piDen += statistics.piNum[i];
+		for (int i = 0; i < hmm.nbStates(); i++)
+			nhmm.setPi(i, statistics.piNum[i] / piDen);
 		
-		/* pdfs computation */
+		/* pdfs computation: the observations have been weighted by gamma */
 		for (int i = 0; i < hmm.nbStates(); i++) {
-			List<O> observations = KMeansLearner.flat(sequences);
-			double[] weights = new double[observations.size()];
-			double sum = 0.;
-			int j = 0;
+			OpdfStatistics<O> opdfStatistics = 
+				statistics.opdfStatistics.get(i);
+			
+			if (opdfStatistics.weight() > 0.) // State i is reachable
+				nhmm.getOpdf(i).fit(opdfStatistics);
+		}
+		
+		return nhmm;
+	}
+	
+	
+	/*
+	 * Computes the statistics of a set of sequences.  The sequences are
+	 * divided in groups (see SequenceGroups); when an executor is given, the
+	 * groups are handled in parallel.  The statistics of the groups are
+	 * always added in the order of the sequences.
+	 */
+	private <O extends Observation> BaumWelchStatistics<O>
+	estimate(final Hmm<O> hmm,
+			Iterable<? extends List<? extends O>> sequences,
+			ExecutorService executor)
+	{
+		final BaumWelchStatistics<O> statistics =
+			new BaumWelchStatistics<O>(hmm);
+		
+		SequenceGroups.run(sequences,
+				new SequenceGroups.Handler<O, BaumWelchStatistics<O>>() {
+			public BaumWelchStatistics<O>
+			compute(int first, List<List<? extends O>> group)
+			{
+				return estimate(hmm, group);
+			}
 			
-			int o = 0;
-			for (List<? extends O> obsSeq : sequences) {
-				for (int t = 0; t < obsSeq.size(); t++, j++)
-					sum += weights[j] = allGamma[o][t][i];
-				o++;
+			public void add(BaumWelchStatistics<O> groupStatistics)
+			{
+				statistics.merge(groupStatistics);
 			}
+		}, executor, 2 * nbThreads);
+		
+		return statistics;
+	}
+	
+	
+	private <O extends Observation> BaumWelchStatistics<O>
+	estimate(Hmm<O> hmm, List<List<? extends O>> sequences)
+	{
+		BaumWelchStatistics<O> statistics = new BaumWelchStatistics<O>(hmm);
+		
+		for (List<? extends O> sequence : sequences)
+			statistics.lnProbability += estimateTransitions(sequence, hmm,
+					statistics.aijNum, statistics.aijDen,
+					statistics.listener(sequence));
+		
+		return statistics;
+	}
+	
+	
+	/**
+	 * Computes the <i>gamma</i> array of a sequence and adds its expected
+	 * numbers of transitions to the sums of all the sequences.  The rows of
+	 * the <i>gamma</i> array are given to a listener as soon as they are
+	 * computed; the whole array is never built.  The <i>gamma</i> and
+	 * <i>xi</i> arrays are those defined by <i>Rabiner</i> and
+	 * <i>Juang</i>.
+	 *
+	 * @param sequence An observation sequence (of length at least 2).
+	 * @param hmm The HMM being estimated.
+	 * @param aijNum The array holding the expected number of transitions
+	 *        going from state <code>i</code> to its <code>k</code>-th
+	 *        successor (indexed <code>[i][k]</code>, see
+	 *        {@link Hmm#successor}), to which the expected numbers of
+	 *        transitions of <code>sequence</code> are added.  If the HMM is
+	 *        not sparse, the <code>k</code>-th successor is state
+	 *        <code>k</code>.
+	 * @param aijDen The array holding the expected number of transitions
+	 *        leaving each state, to which the expected numbers of
+	 *        transitions of <code>sequence</code> are added.
+	 * @param listener The object receiving each row of the <i>gamma</i>
+	 *        array of <code>sequence</code> (<i>i.e.</i> the probability of
+	 *        being in each state at a given time given the sequence).
+	 * @return The neperian logarithm of the probability of
+	 *         <code>sequence</code> given <code>hmm</code>.
+	 */
+	protected <O extends Observation> double
+	estimateTransitions(List<? extends O> sequence, Hmm<O> hmm,
+			double[][] aijNum, double[] aijDen, GammaListener listener)
+	{
+		if (sequence.size() <= 1)
+			throw new IllegalArgumentException("Observation sequence too " +
+			"short");
+		
+		ForwardBackwardCalculator fbc = 
+			generateForwardBackwardCalculator(sequence, hmm);
+		double factor = xiFactor(fbc);
+		
+		/* The xi array is never built: xi[t][i][j] is added to aijNum and
+		 gamma as soon as it is computed. */
+		double[] gamma = new double[hmm.nbStates()];
+		double[] lastGamma = new double[hmm.nbStates()];
+		double[] next = new double[hmm.nbStates()];
+		int last = sequence.size() - 1;
+		
+		for (int t = 0; t < last; t++) {
+			for (int j = 0; j < hmm.nbStates(); j++)
+				next[j] = fbc.emissionElement(t + 1, j) *
+				fbc.betaElement(t + 1, j);
 			
-			for (j--; j >= 0; j--)
-				weights[j] /= sum;
+			for (int i = 0; i < hmm.nbStates(); i++) {
+				double alpha = fbc.alphaElement(t, i) * factor;
+				double[] num = aijNum[i];
+				double[] row = hmm.transitionRow(i);
+				double sum = 0.;
+				
+				if (row != null)
+					for (int j = 0; j < row.length; j++) {
+						double xi = alpha * row[j] * next[j];
+						
+						num[j] += xi;
+						sum += xi;
+						if (t == last - 1)
+							lastGamma[j] += xi;
+					}
+				else
+					for (int k = 0; k < num.length; k++) {
+						int j = hmm.successor(i, k);
+						double xi = alpha * hmm.getAij(i, j) * next[j];
+						
+						num[k] += xi;
+						sum += xi;
+						if (t == last - 1)
+							lastGamma[j] += xi;
+					}
+				
+				gamma[i] = sum;
+				aijDen[i] += sum;
+			}
 			
-			Opdf<O> opdf = nhmm.getOpdf(i);
-			opdf.fit(observations, weights);
+			listener.gamma(t, gamma);
 		}
 		
-		return nhmm;
+		listener.gamma(last, lastGamma);
+		
+		return fbc.lnProbability();
+	}
+	
+	
+	/**
+	 * Returns the factor by which the products of the <i>alpha</i>, 
+	 * transition, observation and <i>beta</i> elements computed by a
+	 * calculator must be multiplied to get the <i>xi</i> values.
+	 *
+	 * @param fbc A calculator generated by 
+	 *        {@link #generateForwardBackwardCalculator}.
+	 * @return The inverse of the probability of the sequence.
+	 */
+	protected double xiFactor(ForwardBackwardCalculator fbc)
+	{
+		return 1. / fbc.probability();
 	}
 	
 	
+	/**
+	 * Returns the workspace given to the calculators built by this object
+	 * in the calling thread.
+	 *
+	 * @return The workspace used to compute the <i>alpha</i> and <i>beta</i>
+	 *         arrays.
+	 */
+	protected ForwardBackwardWorkspace workspace()
+	{
+		return workspaces.get();
+	}
+	
+	
+	/**
+	 * Builds the calculator giving the <i>alpha</i> and <i>beta</i> arrays
+	 * of a sequence.  The calculators built by this class store their arrays
+	 * in the workspace of the calling thread (see {@link #workspace}); they
+	 * are only used until the next calculator is built by the same thread.
+	 *
+	 * @param sequence An observation sequence.
+	 * @param hmm The HMM being estimated.
+	 * @return A calculator holding the <i>alpha</i> and <i>beta</i> arrays
+	 *         of <code>sequence</code>.
+	 */
 	protected <O extends Observation> ForwardBackwardCalculator
 	generateForwardBackwardCalculator(List<? extends O> sequence, Hmm<O> hmm)
 	{	
 		return new ForwardBackwardCalculator(sequence, hmm, 
-				EnumSet.allOf(ForwardBackwardCalculator.Computation.class));
+				EnumSet.allOf(ForwardBackwardCalculator.Computation.class),
+				workspace());
 	}
 	
 	
 	/**
 	 * Does a fixed number of iterations (see {@link #getNbIterations}) of the
-	 * Baum-Welch algorithm.
+	 * Baum-Welch algorithm, or stops before if the algorithm has converged
+	 * (see {@link #setConvergenceThreshold}).  Each iteration calls
+	 * {@link #estimate(Hmm, Iterable)} and then
+	 * {@link #maximize(Hmm, BaumWelchStatistics)}, whose statistics are
+	 * needed to detect the convergence; {@link #iterate} is not called.
 	 * 
 	 * @param initialHmm An initial estimation of the expected HMM.  This
 	 *         estimate is critical as the Baum-Welch algorithm only find
 	 *         local minima of its likelihood function.
 	 * @param sequences The observation sequences on which the learning is
 	 *         based.  Each sequence must have a length higher or equal to 2.
+	 *         The sequences are iterated over once per iteration, and only
+	 *         a bounded number of them is held at any time, so that they can
+	 *         be read from a file (see
+	 *         {@link be.ac.ulg.montefiore.run.jahmm.io.ObservationSequencesFile})
+	 *         instead of being kept in memory.
 	 * @return The HMM that best matches the set of observation sequences given
 	 *         (according to the Baum-Welch algorithm).
 	 */
 	public <O extends Observation> Hmm<O>
-	learn(Hmm<O> initialHmm, List<? extends List<? extends O>> sequences)
+	learn(Hmm<O> initialHmm,
+			Iterable<? extends List<? extends O>> sequences)
 	{
 		Hmm<O> hmm = initialHmm;
+		long start = System.nanoTime();
+		double previousLnProbability = Double.NEGATIVE_INFINITY;
 		
-		for (int i = 0; i < nbIterations; i++)
-			hmm = iterate(hmm, sequences);
+		for (int i = 0; i < nbIterations; i++) {
+			long expectationStart = System.nanoTime();
+			BaumWelchStatistics<O> statistics = estimate(hmm, sequences);
+			long maximizationStart = System.nanoTime();
+			hmm = maximize(hmm, statistics);
+			long end = System.nanoTime();
+			
+			if (listener != null)
+				listener.iteration(i, statistics.lnProbability(),
+						maximizationStart - expectationStart,
+						end - maximizationStart, end - start);
+			
+			/* The probability given by the HMM learnt by this iteration is
+			 only known at the next one; the last HMM is kept */
+			if (convergenceThreshold > 0. &&
+					statistics.lnProbability() - previousLnProbability <
+					convergenceThreshold)
+				break;
+			previousLnProbability = statistics.lnProbability();
+		}
 		
 		return hmm;
 	}
 	
 	
+	/**
+	 * Learns an HMM using the Baum-Welch algorithm.  This method is kept for
+	 * the compatibility with the previous releases.
+	 *
+	 * @see #learn(Hmm, Iterable)
+	 */
+	public <O extends Observation> Hmm<O>
+	learn(Hmm<O> initialHmm, List<? extends List<? extends O>> sequences)
+	{
+		return learn(initialHmm,
+				(Iterable<? extends List<? extends O>>) sequences);
+	}
+	
+	
+	/**
+	 * Computes the <i>xi</i> array of a sequence.  This array is not used
+	 * by the default implementation of {@link #estimateTransitions}, which
+	 * needs far less memory.
+	 *
+	 * @param sequence An observation sequence (of length at least 2).
+	 * @param fbc A calculator generated by 
+	 *        {@link #generateForwardBackwardCalculator}.
+	 * @param hmm The HMM being estimated.
+	 * @return The <i>xi</i> array.
+	 * @deprecated This method is no longer called by the learner, so
+	 *             overriding it does not change the learnt HMM; override
+	 *             {@link #estimateTransitions} instead.
+	 */
 	protected <O extends Observation> double[][][]
 	estimateXi(List<? extends O> sequence, ForwardBackwardCalculator fbc,
 			Hmm<O> hmm)
@@ -170,28 +465,33 @@ public class BaumWelchLearner
 			new double[sequence.size()-1][hmm.nbStates()][hmm.nbStates()];
 		double probability = fbc.probability();
 		
-		Iterator<? extends O> seqIterator = sequence.iterator();
-		seqIterator.next();
-		
-		for (int t = 0; t < sequence.size() - 1; t++) {
-			O o = seqIterator.next();
-			
+		for (int t = 0; t < sequence.size() - 1; t++)
 			for (int i = 0; i < hmm.nbStates(); i++)
 				for (int j = 0; j < hmm.nbStates(); j++)
 					xi[t][i][j] = fbc.alphaElement(t, i) *
 					hmm.getAij(i, j) *
-					hmm.getOpdf(j).probability(o) *
+					fbc.emissionElement(t + 1, j) *
 					fbc.betaElement(t+1, j) / probability;
-		}
 		
 		return xi;
 	}
 	
 	
-	/* gamma[][] could be computed directly using the alpha and beta
+	/**
+	 * Computes the <i>gamma</i> array of a sequence from its <i>xi</i>
+	 * array.
+	 * <p>
+	 * <i>gamma</i> could be computed directly using the alpha and beta
 	 * arrays, but this (slower) method is prefered because it doesn't
 	 * change if the xi array has been scaled (and should be changed with
 	 * the scaled alpha and beta arrays).
+	 *
+	 * @param xi The <i>xi</i> array of a sequence.
+	 * @param fbc The calculator used to compute <code>xi</code>.
+	 * @return The <i>gamma</i> array.
+	 * @deprecated This method is no longer called by the learner, so
+	 *             overriding it does not change the learnt HMM; override
+	 *             {@link #estimateTransitions} instead.
 	 */
 	protected double[][]
 	estimateGamma(double[][][] xi, ForwardBackwardCalculator fbc)
@@ -225,8 +525,94 @@ public class BaumWelchLearner
 	}
 	
 	
+	/**
+	 * Returns the convergence threshold of the {@link #learn} method.
+	 * 
+	 * @return The threshold (see {@link #setConvergenceThreshold}).
+	 */
+	public double getConvergenceThreshold()
+	{
+		return convergenceThreshold;
+	}
+	
+	
+	/**
+	 * Sets the convergence threshold of the {@link #learn} method.  The
+	 * learning stops as soon as an iteration increases the neperian
+	 * logarithm of the probability of the sequences (summed over the
+	 * sequences) by less than this value, or after
+	 * {@link #getNbIterations} iterations.  This probability is computed by
+	 * the expectation step at no additional cost.
+	 * 
+	 * @param threshold The (positive) threshold; if it is null, the number
+	 *        of iterations is fixed.
+	 */
+	public void setConvergenceThreshold(double threshold)
+	{
+		if (!(threshold >= 0.))
+			throw new IllegalArgumentException("Positive number expected");
+		
+		convergenceThreshold = threshold;
+	}
+	
+	
+	/**
+	 * Returns the object told about the progress of the {@link #learn}
+	 * method.
+	 * 
+	 * @return The listener, or <code>null</code> if there is none.
+	 */
+	public BaumWelchListener getListener()
+	{
+		return listener;
+	}
+	
+	
+	/**
+	 * Sets the object told about the progress of the {@link #learn} method.
+	 * 
+	 * @param listener An object called after each iteration, or
+	 *        <code>null</code>.
+	 */
+	public void setListener(BaumWelchListener listener)
+	{
+		this.listener = listener;
+	}
+	
+	
+	/**
+	 * Returns the number of threads used to handle the sequences.
+	 * 
+	 * @return The number of threads.
+	 */
+	public int getNbThreads()
+	{
+		return nbThreads;
+	}
+	
+	
+	/**
+	 * Sets the number of threads used to handle the sequences.  Each thread
+	 * computes the expected numbers of transitions of its own sequences.
+	 * The results are added in the order of the sequences, so that the
+	 * learnt HMM does not depend on the number of threads.
+	 * 
+	 * @param nb The (strictly positive) number of threads.
+	 */
+	public void setNbThreads(int nb)
+	{
+		if (nb <= 0)
+			throw new IllegalArgumentException("Strictly positive number " +
+					"expected");
+		
+		nbThreads = nb;
+	}
+	
+	
 	/**
 	 * Sets the number of iterations performed by the {@link #learn} method.
+	 * If a convergence threshold is set, this is the maximum number of
+	 * iterations.
 	 * 
 	 * @param nb The (positive) number of iterations to perform.
 	 */
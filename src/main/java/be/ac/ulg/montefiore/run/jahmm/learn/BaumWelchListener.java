@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.learn;
+
+
+/**
+ * Objects implementing this interface are told about the progress of the
+ * {@link BaumWelchLearner#learn} method, once per iteration.
+ */
+public interface BaumWelchListener
+{
+	/**
+	 * Called at the end of each iteration of the Baum-Welch algorithm.
+	 *
+	 * @param iteration The index of the iteration (the first one is
+	 *        <code>0</code>).
+	 * @param lnProbability The neperian logarithm of the probability of the
+	 *        sequences given the HMM estimated by the previous iteration (or
+	 *        the initial HMM); it is computed by the expectation step of
+	 *        this iteration.
+	 * @param expectationTime The time spent computing the expected numbers
+	 *        of transitions and observations (the expectation step), in
+	 *        nanoseconds.
+	 * @param maximizationTime The time spent building the new HMM from these
+	 *        expected numbers (the maximization step), in nanoseconds.
+	 * @param totalTime The time elapsed since the learning began, in
+	 *        nanoseconds.
+	 */
+	public void iteration(int iteration, double lnProbability,
+			long expectationTime, long maximizationTime, long totalTime);
+}
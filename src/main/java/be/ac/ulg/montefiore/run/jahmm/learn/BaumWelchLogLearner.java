@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.learn;
+
+import java.util.*;
+
+import be.ac.ulg.montefiore.run.jahmm.*;
+
+
+/**
+ * An implementation of the Baum-Welch learning algorithm.  The
+ * <i>alpha</i> and <i>beta</i> arrays are computed in the logarithmic
+ * domain (see {@link ForwardBackwardLogCalculator}), so that very long
+ * sequences, or sequences holding observations with extremely small
+ * probabilities, can be handled without underflows.
+ */
+public class BaumWelchLogLearner
+extends BaumWelchLearner
+{
+	/**
+	 * Initializes a Baum-Welch algorithm implementation.
+	 */
+	public BaumWelchLogLearner()
+	{
+	}
+	
+	
+	protected <O extends Observation> ForwardBackwardCalculator
+	generateForwardBackwardCalculator(List<? extends O> sequence,
+			Hmm<O> hmm)
+	{
+		return new ForwardBackwardLogCalculator(sequence, hmm,
+				EnumSet.allOf(ForwardBackwardCalculator.Computation.class),
+				workspace());
+	}
+	
+	
+	/* The elements of the calculator are logarithms: each xi[t][i][j] value
+	 is computed in the logarithmic domain, exponentiated once divided by the
+	 probability of the sequence, and immediately added to aijNum and gamma. */
+	protected <O extends Observation> double
+	estimateTransitions(List<? extends O> sequence, Hmm<O> hmm,
+			double[][] aijNum, double[] aijDen, GammaListener listener)
+	{
+		if (sequence.size() <= 1)
+			throw new IllegalArgumentException("Observation sequence too " +
+			"short");
+		
+		/* The logarithms of the transition probabilities are computed once
+		 per HMM (see Hmm.logView) and shared by all the sequences. */
+		LogHmm<O> lnHmm = hmm.logView();
+		ForwardBackwardCalculator fbc =
+			generateForwardBackwardCalculator(sequence, hmm);
+		double lnProbability = fbc.lnProbability();
+		
+		double[] gamma = new double[hmm.nbStates()];
+		double[] lastGamma = new double[hmm.nbStates()];
+		double[] next = new double[hmm.nbStates()];
+		int last = sequence.size() - 1;
+		
+		for (int t = 0; t < last; t++) {
+			for (int j = 0; j < hmm.nbStates(); j++)
+				next[j] = fbc.emissionElement(t + 1, j) +
+				fbc.betaElement(t + 1, j) - lnProbability;
+			
+			for (int i = 0; i < hmm.nbStates(); i++) {
+				double lnAlpha = fbc.alphaElement(t, i);
+				double sum = 0.;
+				
+				for (int k = 0; k < hmm.nbSuccessors(i); k++) {
+					int j = hmm.successor(i, k);
+					double xi = Math.exp(lnAlpha +
+							lnHmm.getLnSuccessorAij(i, k) + next[j]);
+					
+					aijNum[i][k] += xi;
+					sum += xi;
+					if (t == last - 1)
+						lastGamma[j] += xi;
+				}
+				
+				gamma[i] = sum;
+				aijDen[i] += sum;
+			}
+			
+			listener.gamma(t, gamma);
+		}
+		
+		listener.gamma(last, lastGamma);
+		
+		return lnProbability;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.learn;
+
+import java.util.Collections;
+import java.util.List;
+
+import be.ac.ulg.montefiore.run.jahmm.*;
+
+
+/**
+ * An implementation of the stepwise (online) version of the Baum-Welch
+ * learning algorithm.  The HMM is updated each time a new sequence (or
+ * a new batch of sequences) is given, so that it can follow a stream of
+ * sequences whose statistical properties slowly change.
+ * <p>
+ * This object keeps running statistics of the sequences seen so far (see
+ * {@link BaumWelchStatistics}).  When a batch of sequences is given, its
+ * statistics are computed using the current HMM and blended into the
+ * running ones: if <i>s</i> are the running statistics and <i>s'</i> those
+ * of the <i>k</i>-th batch (starting at 0), the new running statistics are
+ * <code>(1 - eta(k)) s + eta(k) s'</code>.  The new HMM is then computed
+ * from the running statistics.
+ * <p>
+ * The step size is <code>eta(k) = (k + 1 + offset)<sup>-exponent</sup></code>,
+ * where the exponent is in <code>]0.5, 1]</code>; an exponent of 1 and an
+ * offset of 0 give the same weight to all the sequences, while smaller
+ * exponents give more weight to the recent ones.  For more information, read
+ * <i>Cappé</i> and <i>Moulines</i>'s <i>On-line expectation-maximization
+ * algorithm for latent data models</i> (Journal of the Royal Statistical
+ * Society, 2009) and <i>Liang</i> and <i>Klein</i>'s <i>Online EM for
+ * unsupervised models</i> (NAACL, 2009).
+ * <p>
+ * The time needed by each update only depends on the size of the batch, and
+ * the memory used does not depend on the number of sequences seen.  The
+ * statistics of a batch are computed by a {@link BaumWelchLearner} (and thus
+ * its forward-backward calculators and threads).
+ * <p>
+ * The parameters fitted to the first batch only depend on its sequences:
+ * if it is too small, some observations or initial states can be given a
+ * null probability, and later sequences holding them are rejected.
+ * <p>
+ * As the statistics of the observations of a Gaussian mixture depend on the
+ * parameters of the mixture, blending the statistics computed using
+ * different HMMs only gives an approximation of those distributions.
+ */
+public class BaumWelchOnlineLearner<O extends Observation>
+{
+	private final BaumWelchLearner learner;
+	private Hmm<O> hmm;
+	/* The running statistics, or null if no batch has been seen */
+	private BaumWelchStatistics<O> statistics;
+	private long nbUpdates;
+	private double stepSizeExponent = .6;
+	private double stepSizeOffset = 2.;
+	
+	
+	/**
+	 * Creates an online learner using a {@link BaumWelchScaledLearner} to
+	 * compute the statistics of each batch.
+	 *
+	 * @param initialHmm An initial estimation of the expected HMM.
+	 */
+	public BaumWelchOnlineLearner(Hmm<O> initialHmm)
+	{
+		this(initialHmm, new BaumWelchScaledLearner());
+	}
+	
+	
+	/**
+	 * Creates an online learner.
+	 *
+	 * @param initialHmm An initial estimation of the expected HMM.
+	 * @param learner The object computing the statistics of each batch (see
+	 *        {@link BaumWelchLearner#estimate(Hmm, Iterable)}).
+	 */
+	public BaumWelchOnlineLearner(Hmm<O> initialHmm, BaumWelchLearner learner)
+	{
+		this.learner = learner;
+		hmm = initialHmm;
+		statistics = null;
+		nbUpdates = 0;
+	}
+	
+	
+	/**
+	 * Updates the HMM given a new sequence.
+	 *
+	 * @param sequence An observation sequence (of length at least 2).
+	 * @return The updated HMM.
+	 */
+	public Hmm<O> update(List<? extends O> sequence)
+	{
+		return update(Collections.singletonList(sequence));
+	}
+	
+	
+	/**
+	 * Updates the HMM given a batch of new sequences.
+	 *
+	 * @param sequences A non-empty set of observation sequences.  Each
+	 *        sequence must have a length higher or equal to 2.
+	 * @return The updated HMM.
+	 * @throws IllegalArgumentException If the probability of a sequence
+	 *         given the current HMM is null; this object is then left
+	 *         unchanged.
+	 */
+	public Hmm<O> update(Iterable<? extends List<? extends O>> sequences)
+	{
+		BaumWelchStatistics<O> batchStatistics =
+			learner.estimate(hmm, sequences);
+		
+		if (batchStatistics.nbSequences() == 0)
+			throw new IllegalArgumentException("Empty batch");
+		if (!(batchStatistics.lnProbability() > Double.NEGATIVE_INFINITY))
+			throw new IllegalArgumentException("Batch has a null probability");
+		
+		if (statistics == null)
+			statistics = batchStatistics;
+		else {
+			double stepSize = stepSize(nbUpdates);
+			
+			statistics.scale(1. - stepSize);
+			batchStatistics.scale(stepSize);
+			statistics.merge(batchStatistics);
+		}
+		
+		hmm = learner.maximize(hmm, statistics);
+		nbUpdates++;
+		
+		return hmm;
+	}
+	
+	
+	/**
+	 * Returns the weight given to the statistics of a batch of sequences.
+	 *
+	 * @param k The number of batches seen before this one.
+	 * @return The step size <code>eta(k)</code>, in <code>]0, 1]</code>.
+	 */
+	protected double stepSize(long k)
+	{
+		return Math.pow(k + 1 + stepSizeOffset, -stepSizeExponent);
+	}
+	
+	
+	/**
+	 * Returns the current HMM.
+	 *
+	 * @return The HMM computed by the last update, or the initial HMM.
+	 */
+	public Hmm<O> hmm()
+	{
+		return hmm;
+	}
+	
+	
+	/**
+	 * Returns the number of updates done.
+	 *
+	 * @return The number of batches of sequences seen so far.
+	 */
+	public long nbUpdates()
+	{
+		return nbUpdates;
+	}
+	
+	
+	/**
+	 * Returns the exponent of the step size.
+	 *
+	 * @return The exponent of the step size.
+	 */
+	public double getStepSizeExponent()
+	{
+		return stepSizeExponent;
+	}
+	
+	
+	/**
+	 * Sets the exponent of the step size.  The closer to 0.5, the faster the
+	 * HMM follows the changes of the sequences (and the noisier it is).
+	 * Default is 0.6.
+	 *
+	 * @param exponent The new exponent, in <code>]0.5, 1]</code>.
+	 */
+	public void setStepSizeExponent(double exponent)
+	{
+		if (!(exponent > .5 && exponent <= 1.))
+			throw new IllegalArgumentException("Exponent must be in ]0.5, 1]");
+		
+		stepSizeExponent = exponent;
+	}
+	
+	
+	/**
+	 * Returns the offset of the step size.
+	 *
+	 * @return The offset of the step size.
+	 */
+	public double getStepSizeOffset()
+	{
+		return stepSizeOffset;
+	}
+	
+	
+	/**
+	 * Sets the offset of the step size.  A larger offset slows down the
+	 * updates following the first ones.  Default is 2.
+	 *
+	 * @param offset The new (positive) offset.
+	 */
+	public void setStepSizeOffset(double offset)
+	{
+		if (!(offset >= 0.))
+			throw new IllegalArgumentException("Offset must be positive");
+		
+		stepSizeOffset = offset;
+	}
+}
@@ -21,6 +21,13 @@ import be.ac.ulg.montefiore.run.jahmm.*;
 public class BaumWelchScaledLearner
 extends BaumWelchLearner
 {	
+	/**
+	 * If true, the sequences are handled using a
+	 * {@link ForwardBackwardCheckpointedCalculator}.
+	 */
+	private boolean checkpointed = false;
+	
+	
 	/**
 	 * Initializes a Baum-Welch algorithm implementation.
 	 */
@@ -29,21 +36,85 @@ extends BaumWelchLearner
 	}
 	
 	
+	/* When checkpointing is enabled, the alpha and beta arrays are not
+	 built; the gamma rows are given by decreasing time index. */
+	protected <O extends Observation> double
+	estimateTransitions(List<? extends O> sequence, Hmm<O> hmm,
+			double[][] aijNum, double[] aijDen, GammaListener listener)
+	{
+		if (!checkpointed)
+			return super.estimateTransitions(sequence, hmm, aijNum, aijDen,
+					listener);
+		
+		if (sequence.size() <= 1)
+			throw new IllegalArgumentException("Observation sequence too " + 
+			"short");
+		
+		return new ForwardBackwardCheckpointedCalculator(sequence, hmm,
+				aijNum, aijDen, listener).lnProbability();
+	}
+	
+	
 	protected <O extends Observation> ForwardBackwardCalculator
 	generateForwardBackwardCalculator(List<? extends O> sequence,
 			Hmm<O> hmm)
 	{
 		return new ForwardBackwardScaledCalculator(sequence, hmm, 
-				EnumSet.allOf(ForwardBackwardCalculator.Computation.class));
+				EnumSet.allOf(ForwardBackwardCalculator.Computation.class),
+				workspace());
+	}
+	
+	
+	/**
+	 * Tells if the sequences are handled using a
+	 * {@link ForwardBackwardCheckpointedCalculator}.
+	 *
+	 * @return <code>true</code> if checkpointing is enabled.
+	 */
+	public boolean isCheckpointed()
+	{
+		return checkpointed;
+	}
+	
+	
+	/**
+	 * Enables or disables checkpointing.  When enabled, the expected numbers
+	 * of transitions of each sequence are computed using O(N sqrt(T))
+	 * memory (see {@link ForwardBackwardCheckpointedCalculator}), where
+	 * <i>N</i> is the number of states and <i>T</i> the length of the
+	 * sequence, at the price of an additional forward pass.  As the
+	 * <i>gamma</i> values are given to the statistics one time step at a
+	 * time, no array depends on the length of the sequence otherwise: the
+	 * memory used by each sequence is O(N sqrt(T)) in total.
+	 *
+	 * @param checkpointed <code>true</code> to enable checkpointing.
+	 */
+	public void setCheckpointed(boolean checkpointed)
+	{
+		this.checkpointed = checkpointed;
+	}
+	
+	
+	/* The scaled alpha and beta arrays are such that their product does not
+	 have to be divided by the probability of the sequence (see below). */
+	protected double xiFactor(ForwardBackwardCalculator fbc)
+	{
+		return 1.;
 	}
 	
 	
-	/* Here, the xi (and, thus, gamma) values are not divided by the
-	 probability of the sequence because this probability might be
-	 too small and induce an underflow. xi[t][i][j] still can be
-	 interpreted as P[q_t = i and q_(t+1) = j | obsSeq, hmm] because
-	 we assume that the scaling factors are such that their product
-	 is equal to the inverse of the probability of the sequence. */
+	/**
+	 * Here, the xi (and, thus, gamma) values are not divided by the
+	 * probability of the sequence because this probability might be
+	 * too small and induce an underflow. xi[t][i][j] still can be
+	 * interpreted as P[q_t = i and q_(t+1) = j | obsSeq, hmm] because
+	 * we assume that the scaling factors are such that their product
+	 * is equal to the inverse of the probability of the sequence.
+	 *
+	 * @deprecated This method is no longer called by the learner, so
+	 *             overriding it does not change the learnt HMM; override
+	 *             {@link #estimateTransitions} instead.
+	 */
 	protected <O extends Observation> double[][][]
 	estimateXi(List<? extends O> sequence, ForwardBackwardCalculator fbc,
 			Hmm<O> hmm)
@@ -55,19 +126,13 @@ extends BaumWelchLearner
 		double xi[][][] = 
 			new double[sequence.size() - 1][hmm.nbStates()][hmm.nbStates()];
 		
-		Iterator<? extends O> seqIterator = sequence.iterator();
-		seqIterator.next();
-		
-		for (int t = 0; t < sequence.size() - 1; t++) {
-			O observation = seqIterator.next();
-			
+		for (int t = 0; t < sequence.size() - 1; t++)
 			for (int i = 0; i < hmm.nbStates(); i++)
 				for (int j = 0; j < hmm.nbStates(); j++)
 					xi[t][i][j] = fbc.alphaElement(t, i) *
 					hmm.getAij(i, j) * 
-					hmm.getOpdf(j).probability(observation) *
+					fbc.emissionElement(t + 1, j) *
 					fbc.betaElement(t + 1, j);
-		}
 		
 		return xi;
 	}
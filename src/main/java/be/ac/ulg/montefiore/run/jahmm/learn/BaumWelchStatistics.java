@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.learn;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.ac.ulg.montefiore.run.jahmm.*;
+
+
+/**
+ * Holds the quantities computed by the expectation step of the Baum-Welch
+ * algorithm over a set of sequences: the expected number of times each
+ * state starts a sequence, the expected number of transitions between each
+ * pair of states, the statistics of the observations weighted by the
+ * probability of each state, and the probability of the sequences.
+ * <p>
+ * These statistics are computed by
+ * {@link BaumWelchLearner#estimate(Hmm, Iterable)} and used by
+ * {@link BaumWelchLearner#maximize(Hmm, BaumWelchStatistics)} to build a new
+ * HMM.  The statistics of disjoint sets of sequences computed using the same
+ * HMM can be merged, so that the sequences can be divided between several
+ * threads or processes; this object is serializable for the latter purpose.
+ * Merging the statistics in the order of the sequences always gives the same
+ * result, whatever the way they have been computed.
+ */
+public class BaumWelchStatistics<O extends Observation>
+implements Serializable
+{
+	/* aijNum[i][k] = expected number of transitions from state i to its k-th
+	 successor (see Hmm.successor) */
+	final double[][] aijNum;
+	/* aijDen[i] = expected number of transitions from state i */
+	final double[] aijDen;
+	/* piNum[i] = expected number of sequences starting in state i */
+	final double[] piNum;
+	/* The number of sequences */
+	int nbSequences;
+	/* The sum of the neperian logarithms of the probabilities of the
+	 sequences */
+	double lnProbability;
+	/* The observations weighted by the probability of each state */
+	final List<OpdfStatistics<O>> opdfStatistics;
+	
+	
+	/**
+	 * Creates the statistics of an empty set of sequences.
+	 *
+	 * @param hmm The HMM used to compute the statistics.
+	 */
+	public BaumWelchStatistics(Hmm<O> hmm)
+	{
+		int nbStates = hmm.nbStates();
+		
+		aijNum = new double[nbStates][];
+		aijDen = new double[nbStates];
+		piNum = new double[nbStates];
+		nbSequences = 0;
+		opdfStatistics = new ArrayList<OpdfStatistics<O>>(nbStates);
+		
+		for (int i = 0; i < nbStates; i++) {
+			aijNum[i] = new double[hmm.nbSuccessors(i)];
+			opdfStatistics.add(hmm.getOpdf(i).newStatistics());
+		}
+	}
+	
+	
+	/*
+	 * Returns a listener adding the gamma values of a sequence to these
+	 * statistics.  The sequence must be accessible in O(1).
+	 */
+	GammaListener listener(final List<? extends O> sequence)
+	{
+		nbSequences++;
+		
+		return new GammaListener() {
+			public void gamma(int t, double[] gamma)
+			{
+				O o = sequence.get(t);
+				
+				for (int i = 0; i < gamma.length; i++) {
+					opdfStatistics.get(i).accumulate(o, gamma[i]);
+					
+					if (t == 0)
+						piNum[i] += gamma[i];
+				}
+			}
+		};
+	}
+	
+	
+	/*
+	 * Adds the statistics of a sequence whose state at each time step is
+	 * known (states[t] is the state of time t): each observation is
+	 * given to the statistics of its state with a weight of 1.  The
+	 * transitions must be allowed by the HMM.
+	 */
+	void add(List<? extends O> sequence, int[] states, Hmm<O> hmm)
+	{
+		nbSequences++;
+		piNum[states[0]]++;
+		
+		int t = 0;
+		for (O o : sequence) {
+			opdfStatistics.get(states[t]).accumulate(o, 1.);
+			
+			if (t > 0) {
+				int i = states[t - 1];
+				int k = states[t]; // Index of states[t] among the successors
+				
+				if (hmm.isSparse())
+					for (k = 0; hmm.successor(i, k) != states[t]; k++)
+						;
+				
+				aijNum[i][k]++;
+				aijDen[i]++;
+			}
+			
+			t++;
+		}
+	}
+	
+	
+	/**
+	 * Adds the statistics of another set of sequences to these statistics.
+	 *
+	 * @param statistics The statistics of a set of sequences computed using
+	 *        the same HMM as these statistics.
+	 */
+	public void merge(BaumWelchStatistics<O> statistics)
+	{
+		if (statistics.aijDen.length != aijDen.length)
+			throw new IllegalArgumentException("Incompatible statistics");
+		
+		for (int i = 0; i < aijDen.length; i++)
+			if (statistics.aijNum[i].length != aijNum[i].length)
+				throw new IllegalArgumentException("Incompatible statistics");
+		
+		for (int i = 0; i < aijDen.length; i++) {
+			aijDen[i] += statistics.aijDen[i];
+			piNum[i] += statistics.piNum[i];
+			
+			for (int k = 0; k < aijNum[i].length; k++)
+				aijNum[i][k] += statistics.aijNum[i][k];
+			
+			opdfStatistics.get(i).merge(statistics.opdfStatistics.get(i));
+		}
+		
+		nbSequences += statistics.nbSequences;
+		lnProbability += statistics.lnProbability;
+	}
+	
+	
+	/**
+	 * Multiplies the weight of the sequences described by these statistics
+	 * by a given factor: all the expected numbers, the statistics of the
+	 * observations and the logarithm of the probability of the sequences
+	 * are scaled.  The number of sequences is left unchanged.
+	 *
+	 * @param factor A positive factor.
+	 */
+	public void scale(double factor)
+	{
+		if (!(factor > 0.))
+			throw new IllegalArgumentException("Factor must be strictly " +
+					"positive");
+		
+		for (int i = 0; i < aijDen.length; i++) {
+			aijDen[i] *= factor;
+			piNum[i] *= factor;
+			
+			for (int k = 0; k < aijNum[i].length; k++)
+				aijNum[i][k] *= factor;
+			
+			opdfStatistics.get(i).scale(factor);
+		}
+		
+		lnProbability *= factor;
+	}
+	
+	
+	/**
+	 * Returns the number of states of the HMM used to compute these
+	 * statistics.
+	 *
+	 * @return The number of states of the HMM.
+	 */
+	public int nbStates()
+	{
+		return aijDen.length;
+	}
+	
+	
+	/**
+	 * Returns the number of sequences described by these statistics.
+	 *
+	 * @return The number of sequences.
+	 */
+	public int nbSequences()
+	{
+		return nbSequences;
+	}
+	
+	
+	/**
+	 * Returns the neperian logarithm of the probability of the sequences
+	 * given the HMM used to compute these statistics.
+	 *
+	 * @return The sum of the logarithms of the probabilities of the
+	 *         sequences.
+	 */
+	public double lnProbability()
+	{
+		return lnProbability;
+	}
+	
+	
+	/**
+	 * Returns the statistics of the observations weighted by the probability
+	 * of being in a given state.
+	 *
+	 * @param stateNb A state number such that
+	 *                <code>0 &le; stateNb &lt; nbStates()</code>.
+	 * @return The statistics of the observations of state
+	 *         <code>stateNb</code>; they are not copied.
+	 */
+	public OpdfStatistics<O> opdfStatistics(int stateNb)
+	{
+		return opdfStatistics.get(stateNb);
+	}
+	
+	
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2004-2009, Jean-Marc François. All Rights Reserved.
+ * Licensed under the New BSD license.  See the LICENSE file.
+ */
+
+package be.ac.ulg.montefiore.run.jahmm.learn;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import be.ac.ulg.montefiore.run.jahmm.*;
+
+
+/**
+ * An implementation of the Viterbi learning algorithm (also known as
+ * segmental k-means or hard expectation-maximization).  This algorithm finds
+ * a HMM that models a set of observation sequences.
+ * <p>
+ * Each iteration aligns each sequence with its most likely state sequence
+ * (see {@link ViterbiCalculator}), then builds a new HMM from these
+ * alignments: the transitions and initial states are counted, and the
+ * observation distribution of each state is fitted to the observations
+ * aligned with it.  The states to which no observation is aligned keep their
+ * parameters.  The algorithm stops when the alignments no longer change.
+ * <p>
+ * An iteration is several times cheaper than an iteration of the Baum-Welch
+ * algorithm, but the HMM found is usually less likely; it can be used as
+ * the initial estimate of a {@link BaumWelchLearner}.  Unlike the
+ * {@link KMeansLearner}, this algorithm starts from an arbitrary HMM.
+ */
+public class ViterbiLearner
+{
+	/**
+	 * Maximum number of iterations performed by the {@link #learn} method.
+	 */
+	private int nbIterations = 20;
+	
+	/**
+	 * The {@link #learn} method stops when the fraction of the observations
+	 * whose state has changed is lower or equal to this value.
+	 */
+	private double convergenceThreshold = 0.;
+	
+	/**
+	 * Number of threads used to align the sequences.
+	 */
+	private int nbThreads = 1;
+	
+	
+	/**
+	 * Initializes a Viterbi learning algorithm instance.
+	 */
+	public ViterbiLearner()
+	{
+	}
+	
+	
+	/**
+	 * Performs one iteration of the Viterbi learning algorithm.
+	 *
+	 * @param hmm A previously estimated HMM.
+	 * @param sequences The observation sequences on which the learning is
+	 *         based.  Each sequence must be non-empty and have a non-null
+	 *         probability given <code>hmm</code>.
+	 * @return A new, updated HMM.
+	 */
+	public <O extends Observation> Hmm<O>
+	iterate(Hmm<O> hmm, List<? extends List<? extends O>> sequences)
+	{
+		ExecutorService executor = SequenceGroups.newExecutor(nbThreads);
+		
+		try {
+			return iterate(hmm, sequences, new int[sequences.size()][],
+					executor).hmm;
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+	
+	
+	/**
+	 * Does iterations of the Viterbi learning algorithm until the alignments
+	 * of the sequences no longer change (see
+	 * {@link #setConvergenceThreshold}), or until the maximum number of
+	 * iterations (see {@link #setNbIterations}) is reached.
+	 * <p>
+	 * The alignments of the sequences are kept between iterations (one
+	 * integer per observation).
+	 *
+	 * @param initialHmm An initial estimation of the expected HMM.
+	 * @param sequences The observation sequences on which the learning is
+	 *         based.  Each sequence must be non-empty and have a non-null
+	 *         probability given <code>initialHmm</code>.
+	 * @return The HMM that best matches the set of observation sequences given
+	 *         (according to the Viterbi learning algorithm).
+	 */
+	public <O extends Observation> Hmm<O>
+	learn(Hmm<O> initialHmm, List<? extends List<? extends O>> sequences)
+	{
+		Hmm<O> hmm = initialHmm;
+		int[][] alignments = new int[sequences.size()][];
+		ExecutorService executor = SequenceGroups.newExecutor(nbThreads);
+		
+		long nbObservations = 0;
+		for (List<? extends O> sequence : sequences)
+			nbObservations += sequence.size();
+		
+		try {
+			for (int i = 0; i < nbIterations; i++) {
+				Iteration<O> iteration =
+					iterate(hmm, sequences, alignments, executor);
+				hmm = iteration.hmm;
+				
+				/* All the states have changed at the first iteration */
+				if (i > 0 && iteration.nbChanges <=
+					convergenceThreshold * nbObservations)
+					break;
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+		
+		return hmm;
+	}
+	
+	
+	/*
+	 * Aligns the sequences using an HMM and builds a new HMM from the
+	 * alignments.  The sequences are divided in groups (see SequenceGroups)
+	 * handled in parallel when an executor is given.  alignments[s] holds
+	 * the previous alignment of the s-th sequence (or null) and is replaced
+	 * by the new one.
+	 */
+	private <O extends Observation> Iteration<O>
+	iterate(final Hmm<O> hmm,
+			List<? extends List<? extends O>> sequences,
+			final int[][] alignments, ExecutorService executor)
+	{
+		final LogHmm<O> logHmm = hmm.logView();
+		final Iteration<O> result = new Iteration<O>(hmm);
+		
+		SequenceGroups.run(sequences,
+				new SequenceGroups.Handler<O, Iteration<O>>() {
+			public Iteration<O>
+			compute(int first, List<List<? extends O>> group)
+			{
+				return align(hmm, logHmm, group, alignments, first);
+			}
+			
+			public void add(Iteration<O> iteration)
+			{
+				result.merge(iteration);
+			}
+		}, executor, 2 * nbThreads);
+		
+		result.hmm = BaumWelchLearner.reestimate(hmm, result.statistics);
+		
+		return result;
+	}
+	
+	
+	/* Aligns a group of sequences; the first one is the first-th sequence */
+	private static <O extends Observation> Iteration<O>
+	align(Hmm<O> hmm, LogHmm<O> logHmm, List<List<? extends O>> group,
+			int[][] alignments, int first)
+	{
+		Iteration<O> result = new Iteration<O>(hmm);
+		
+		for (int g = 0; g < group.size(); g++) {
+			List<? extends O> sequence = group.get(g);
+			int s = first + g;
+			ViterbiCalculator vc = new ViterbiCalculator(sequence, logHmm);
+			
+			if (!(vc.lnProbability() > Double.NEGATIVE_INFINITY))
+				throw new IllegalArgumentException("Sequence has a null " +
+						"probability");
+			
+			int[] states = vc.stateSequence();
+			int[] previousStates = alignments[s];
+			
+			for (int t = 0; t < states.length; t++)
+				if (previousStates == null || previousStates[t] != states[t])
+					result.nbChanges++;
+			
+			alignments[s] = states;
+			result.statistics.add(sequence, states, hmm);
+			result.statistics.lnProbability += vc.lnProbability();
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the maximum number of iterations performed by the
+	 * {@link #learn} method.
+	 *
+	 * @return The maximum number of iterations performed.
+	 */
+	public int getNbIterations()
+	{
+		return nbIterations;
+	}
+	
+	
+	/**
+	 * Sets the maximum number of iterations performed by the {@link #learn}
+	 * method.  Default is 20.
+	 *
+	 * @param nb The (positive) maximum number of iterations.
+	 */
+	public void setNbIterations(int nb)
+	{
+		if (nb < 0)
+			throw new IllegalArgumentException("Positive number expected");
+		
+		nbIterations = nb;
+	}
+	
+	
+	/**
+	 * Returns the convergence threshold of the {@link #learn} method.
+	 *
+	 * @return The convergence threshold.
+	 */
+	public double getConvergenceThreshold()
+	{
+		return convergenceThreshold;
+	}
+	
+	
+	/**
+	 * Sets the convergence threshold of the {@link #learn} method: the
+	 * algorithm stops as soon as the fraction of the observations whose
+	 * state has been changed by an iteration is lower or equal to this
+	 * value.  Default is 0 (the algorithm stops when the alignments no
+	 * longer change).
+	 *
+	 * @param threshold The threshold, in <code>[0, 1]</code>.
+	 */
+	public void setConvergenceThreshold(double threshold)
+	{
+		if (!(threshold >= 0. && threshold <= 1.))
+			throw new IllegalArgumentException("Number in [0, 1] expected");
+		
+		convergenceThreshold = threshold;
+	}
+	
+	
+	/**
+	 * Returns the number of threads used to align the sequences.
+	 *
+	 * @return The number of threads used.
+	 */
+	public int getNbThreads()
+	{
+		return nbThreads;
+	}
+	
+	
+	/**
+	 * Sets the number of threads used to align the sequences.  The HMMs
+	 * computed do not depend on the number of threads.  Default is 1.
+	 *
+	 * @param nb The (strictly positive) number of threads.
+	 */
+	public void setNbThreads(int nb)
+	{
+		if (nb <= 0)
+			throw new IllegalArgumentException("Strictly positive number " +
+					"expected");
+		
+		nbThreads = nb;
+	}
+	
+	
+	/*
+	 * The statistics of the alignments computed by (part of) an iteration,
+	 * the number of states that have changed, and the resulting HMM.
+	 */
+	private static class Iteration<O extends Observation>
+	{
+		final BaumWelchStatistics<O> statistics;
+		long nbChanges;
+		Hmm<O> hmm;
+		
+		
+		Iteration(Hmm<O> hmm)
+		{
+			statistics = new BaumWelchStatistics<O>(hmm);
+			nbChanges = 0;
+		}
+		
+		
+		void merge(Iteration<O> iteration)
+		{
+			statistics.merge(iteration.statistics);
+			nbChanges += iteration.nbChanges;
+		}
+	}
+}
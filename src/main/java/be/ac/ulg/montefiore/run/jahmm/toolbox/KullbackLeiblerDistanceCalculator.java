@@ -5,6 +5,7 @@
 
 package be.ac.ulg.montefiore.run.jahmm.toolbox;
 
+import java.util.EnumSet;
 import java.util.List;
 
 import be.ac.ulg.montefiore.run.jahmm.*;
@@ -46,19 +47,38 @@ public class KullbackLeiblerDistanceCalculator
 	{			
 		double distance = 0.;
 		
+		/* The probabilities are computed in the logarithmic domain, so that
+		 observations whose probability underflows in one of the HMMs (as
+		 happens with high-dimensional vectors) do not lead to NaN values. */
+		LogHmm<O> lnHmm1 = new LogHmm<O>(hmm1);
+		LogHmm<O> lnHmm2 = lnHmm(hmm2);
+		EnumSet<ForwardBackwardCalculator.Computation> flags =
+			EnumSet.of(ForwardBackwardCalculator.Computation.ALPHA);
+		ForwardBackwardWorkspace workspace = new ForwardBackwardWorkspace();
+		
 		for (int i = 0; i < nbSequences; i++) {
 			
 			List<O> oseq = new MarkovGenerator<O>(hmm1).
 			observationSequence(sequencesLength);
 			
-			distance += (new ForwardBackwardScaledCalculator(oseq, hmm1).
-					lnProbability() -
-					new ForwardBackwardScaledCalculator(oseq, hmm2).
-					lnProbability()) / sequencesLength;
+			distance += (new ForwardBackwardLogCalculator(oseq, lnHmm1,
+					flags, workspace).lnProbability() -
+					new ForwardBackwardLogCalculator(oseq, lnHmm2,
+							flags, workspace).lnProbability()) /
+							sequencesLength;
 		}
 		
 		return distance / nbSequences;
 	}
+	
+	
+	/* The observations of hmm1 can be handled by hmm2 */
+	@SuppressWarnings("unchecked")
+	private static <O extends Observation> LogHmm<O>
+	lnHmm(Hmm<? super O> hmm)
+	{
+		return new LogHmm<O>((Hmm<O>) hmm);
+	}
 
 
 	/**
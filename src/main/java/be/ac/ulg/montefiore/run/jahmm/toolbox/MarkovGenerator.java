@@ -45,14 +45,19 @@ public class MarkovGenerator<O extends Observation>
 	{	
 		O o = hmm.getOpdf(stateNb).generate();
 		double rand = Math.random();
+		int last = hmm.nbSuccessors(stateNb) - 1;
 		
-		for (int j = 0; j < hmm.nbStates()-1; j++)
+		/* Only the successors of the current state are visited */
+		for (int k = 0; k < last; k++) {
+			int j = hmm.successor(stateNb, k);
+			
 			if ((rand -= hmm.getAij(stateNb, j)) < 0) {
 				stateNb = j;
 				return o;
 			}
+		}
 		
-		stateNb = hmm.nbStates() - 1;
+		stateNb = hmm.successor(stateNb, last);
 		return o;
 	}
 	
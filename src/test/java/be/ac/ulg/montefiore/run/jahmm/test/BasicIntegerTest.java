@@ -6,10 +6,15 @@
 package be.ac.ulg.montefiore.run.jahmm.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 import be.ac.ulg.montefiore.run.jahmm.*;
+import be.ac.ulg.montefiore.run.jahmm.toolbox.MarkovGenerator;
 
 
 public class BasicIntegerTest 
@@ -49,6 +54,177 @@ extends TestCase
 			new ForwardBackwardScaledCalculator(sequence, hmm);
 		
 		assertEquals(1.8697705349794245E-5, fbsc.probability(), DELTA);
+		
+		ForwardBackwardLogCalculator fblc =
+			new ForwardBackwardLogCalculator(sequence, hmm);
+		
+		assertEquals(Math.log(1.8697705349794245E-5), fblc.lnProbability(),
+				DELTA);
+	}
+	
+	
+	public void testForwardBackwardWorkspace()
+	{
+		EnumSet<ForwardBackwardCalculator.Computation> flags =
+			EnumSet.allOf(ForwardBackwardCalculator.Computation.class);
+		ForwardBackwardWorkspace workspace = new ForwardBackwardWorkspace();
+		
+		List<ObservationInteger> longSequence =
+			new ArrayList<ObservationInteger>();
+		for (int i = 0; i < 1000; i++)
+			longSequence.addAll(sequence);
+		
+		ForwardBackwardScaledCalculator longFbsc =
+			new ForwardBackwardScaledCalculator(longSequence, hmm, flags,
+					workspace);
+		double lnProbability = longFbsc.lnProbability();
+		
+		ForwardBackwardScaledCalculator fbsc =
+			new ForwardBackwardScaledCalculator(sequence, hmm, flags,
+					workspace);
+		assertEquals(1.8697705349794245E-5, fbsc.probability(), DELTA);
+		
+		assertEquals(lnProbability,
+				new ForwardBackwardScaledCalculator(longSequence, hmm, flags,
+						workspace).lnProbability(), DELTA);
+	}
+	
+	
+	public void testTransitionLayouts()
+	{
+		double[] aTransposed = hmm.transposedTransitions();
+		int nbStates = hmm.nbStates();
+		
+		for (int i = 0; i < nbStates; i++)
+			for (int j = 0; j < nbStates; j++) {
+				assertEquals(hmm.getAij(i, j), aTransposed[j * nbStates + i], 0.);
+				assertEquals(hmm.getAij(i, j), hmm.transitionRow(i)[j], 0.);
+			}
+		
+		hmm.setAij(1, 2, .5);
+		assertEquals(.5, hmm.transposedTransitions()[2 * nbStates + 1], 0.);
+		assertEquals(.5, hmm.transitionRow(1)[2], 0.);
+	}
+	
+	
+	public void testForwardFilter()
+	{
+		ForwardFilter<ObservationInteger> filter =
+			new ForwardFilter<ObservationInteger>(hmm);
+		
+		for (int t = 0; t < sequence.size(); t++) {
+			filter.update(sequence.get(t));
+			
+			ForwardBackwardScaledCalculator fbsc =
+				new ForwardBackwardScaledCalculator(sequence.subList(0, t+1),
+						hmm);
+			
+			assertEquals(fbsc.lnProbability(), filter.lnProbability(), DELTA);
+			for (int i = 0; i < hmm.nbStates(); i++)
+				assertEquals(fbsc.alphaElement(t, i),
+						filter.stateProbability(i), DELTA);
+		}
+		
+		filter.reset();
+		assertEquals(0, filter.nbObservations());
+		assertEquals(hmm.getPi(0), filter.stateProbability(0), 0.);
+	}
+	
+	
+	public void testFixedLagSmoother()
+	{
+		Hmm<ObservationInteger> hmm = tieFreeHmm();
+		List<ObservationInteger> sequence = 
+			new MarkovGenerator<ObservationInteger>(hmm).
+			observationSequence(50);
+		
+		for (int lag = 0; lag <= 3; lag += 3) {
+			final List<double[]> gammas = new ArrayList<double[]>();
+			FixedLagSmoother<ObservationInteger> smoother =
+				new FixedLagSmoother<ObservationInteger>(hmm, lag,
+						new StateProbabilitiesListener() {
+					public void stateProbabilities(long t, double[] gamma)
+					{
+						assertEquals(gammas.size(), t);
+						gammas.add(gamma.clone());
+					}
+				});
+			
+			for (int t = 0; t < sequence.size(); t++) {
+				smoother.update(sequence.get(t));
+				assertEquals(Math.max(0, t - lag + 1), gammas.size());
+			}
+			assertEquals(new ForwardBackwardScaledCalculator(sequence, hmm).
+					lnProbability(), smoother.lnProbability(), DELTA);
+			smoother.finish();
+			assertEquals(sequence.size(), gammas.size());
+			
+			for (int t = 0; t < sequence.size(); t++) {
+				int end = Math.min(t + lag + 1, sequence.size());
+				ForwardBackwardScaledCalculator fbsc =
+					new ForwardBackwardScaledCalculator(sequence.subList(0, end),
+							hmm, EnumSet.allOf(
+							ForwardBackwardCalculator.Computation.class));
+				double sum = 0.;
+				
+				for (int i = 0; i < hmm.nbStates(); i++)
+					sum += fbsc.alphaElement(t, i) * fbsc.betaElement(t, i);
+				for (int i = 0; i < hmm.nbStates(); i++)
+					assertEquals(fbsc.alphaElement(t, i) *
+							fbsc.betaElement(t, i) / sum, gammas.get(t)[i], DELTA);
+			}
+		}
+	}
+	
+	
+	public void testPosteriorCalculator()
+	{
+		Hmm<ObservationInteger> hmm = tieFreeHmm();
+		List<ObservationInteger> sequence = 
+			new MarkovGenerator<ObservationInteger>(hmm).
+			observationSequence(200);
+		
+		PosteriorCalculator pc =
+			new PosteriorCalculator(sequence, hmm);
+		final double[][] gammas = new double[sequence.size()][];
+		PosteriorCalculator streamed =
+			new PosteriorCalculator(sequence, hmm, new GammaListener() {
+				public void gamma(int t, double[] gamma)
+				{
+					gammas[t] = gamma.clone();
+				}
+			});
+		ForwardBackwardScaledCalculator fbsc =
+			new ForwardBackwardScaledCalculator(sequence, hmm,
+					EnumSet.allOf(ForwardBackwardCalculator.Computation.class));
+		
+		assertEquals(fbsc.lnProbability(), pc.lnProbability(), DELTA);
+		assertEquals(fbsc.lnProbability(), streamed.lnProbability(), DELTA);
+		assertTrue(Arrays.equals(pc.stateSequence(), streamed.stateSequence()));
+		
+		int[] states = pc.stateSequence();
+		double[] confidences = pc.confidences();
+		for (int t = 0; t < sequence.size(); t++) {
+			double sum = 0.;
+			
+			for (int i = 0; i < hmm.nbStates(); i++)
+				sum += fbsc.alphaElement(t, i) * fbsc.betaElement(t, i);
+			for (int i = 0; i < hmm.nbStates(); i++) {
+				double gamma = fbsc.alphaElement(t, i) *
+				fbsc.betaElement(t, i) / sum;
+				
+				assertEquals(gamma, pc.stateProbability(t, i), DELTA);
+				assertEquals(gamma, gammas[t][i], DELTA);
+				assertTrue(pc.stateProbability(t, states[t]) >= gamma);
+			}
+			assertEquals(pc.stateProbability(t, states[t]), confidences[t], 0.);
+		}
+		
+		try {
+			streamed.stateProbability(0, 0);
+			fail("State probabilities should not have been kept");
+		} catch (UnsupportedOperationException e) {
+		}
 	}
 	
 	
@@ -58,6 +234,190 @@ extends TestCase
 		
 		assertEquals(4.1152263374485705E-8, 
 				Math.exp(vc.lnProbability()), DELTA);
+		
+		LogHmm<ObservationInteger> lnHmm = new LogHmm<ObservationInteger>(hmm);
+		ViterbiCalculator lnVc = new ViterbiCalculator(sequence, lnHmm);
+		
+		assertEquals(vc.lnProbability(), lnVc.lnProbability(), 0.);
+		assertTrue(Arrays.equals(vc.stateSequence(), lnVc.stateSequence()));
+		assertEquals(Math.log(1.8697705349794245E-5),
+				new ForwardBackwardLogCalculator(sequence, lnHmm,
+						EnumSet.of(ForwardBackwardCalculator.Computation.BETA),
+						new ForwardBackwardWorkspace()).lnProbability(),
+				DELTA);
+	}
+	
+	
+	public void testOnlineViterbi()
+	{
+		Hmm<ObservationInteger> hmm = tieFreeHmm();
+		List<ObservationInteger> sequence = 
+			new MarkovGenerator<ObservationInteger>(hmm).
+			observationSequence(2000);
+		ViterbiCalculator vc = new ViterbiCalculator(sequence, hmm);
+		int[] stateSequence = vc.stateSequence();
+		
+		for (int maxLag = 0; maxLag <= 3; maxLag += 3) {
+			final List<Integer> states = new ArrayList<Integer>();
+			OnlineViterbiCalculator<ObservationInteger> ovc =
+				new OnlineViterbiCalculator<ObservationInteger>(
+						new LogHmm<ObservationInteger>(hmm),
+						new StateListener() {
+					public void state(long t, int stateNb)
+					{
+						assertEquals(states.size(), t);
+						states.add(stateNb);
+					}
+				}, maxLag);
+			
+			for (ObservationInteger o : sequence) {
+				ovc.update(o);
+				assertTrue(maxLag == 0 || ovc.nbUndecided() <= maxLag);
+			}
+			double lnProbability = ovc.lnProbability();
+			assertTrue(states.size() >= sequence.size() - 100);
+			ovc.finish();
+			
+			assertEquals(sequence.size(), states.size());
+			if (maxLag == 0) {
+				assertEquals(vc.lnProbability(), lnProbability, 1e-8);
+				for (int t = 0; t < sequence.size(); t++)
+					assertEquals(stateSequence[t], states.get(t).intValue());
+			} else
+				assertTrue(lnProbability <= vc.lnProbability() + 1e-8);
+		}
+	}
+	
+	
+	public void testBeam()
+	{
+		Hmm<ObservationInteger> hmm = tieFreeHmm();
+		LogHmm<ObservationInteger> lnHmm = new LogHmm<ObservationInteger>(hmm);
+		List<ObservationInteger> sequence = 
+			new MarkovGenerator<ObservationInteger>(hmm).
+			observationSequence(500);
+		
+		Beam wide = new Beam(Double.POSITIVE_INFINITY, 0);
+		BeamViterbiCalculator bvc =
+			new BeamViterbiCalculator(sequence, lnHmm, wide, true);
+		assertEquals(bvc.exactLnProbability(), bvc.lnProbability(), DELTA);
+		assertEquals(0, bvc.nbStateErrors());
+		assertEquals(hmm.nbStates(), bvc.nbActiveStates()[100]);
+		BeamForwardCalculator bfc =
+			new BeamForwardCalculator(sequence, lnHmm, wide, true);
+		assertEquals(bfc.exactLnProbability(), bfc.lnProbability(), 1e-8);
+		
+		Beam narrow = new Beam(1., 2);
+		bvc = new BeamViterbiCalculator(sequence, lnHmm, narrow, true);
+		assertTrue(bvc.lnProbability() <= bvc.exactLnProbability() + DELTA);
+		for (int nb : bvc.nbActiveStates())
+			assertTrue(nb >= 1 && nb <= 2);
+		bfc = new BeamForwardCalculator(sequence, lnHmm, narrow, true);
+		assertTrue(bfc.lnProbability() <= bfc.exactLnProbability() + 1e-8);
+	}
+	
+	
+	public void testBatchCalculator()
+	{
+		Hmm<ObservationInteger> hmm = tieFreeHmm();
+		MarkovGenerator<ObservationInteger> mg =
+			new MarkovGenerator<ObservationInteger>(hmm);
+		List<List<ObservationInteger>> sequences =
+			new ArrayList<List<ObservationInteger>>();
+		for (int i = 0; i < 200; i++)
+			sequences.add(mg.observationSequence(1 + i % 37));
+		
+		BatchCalculator<ObservationInteger> bc =
+			new BatchCalculator<ObservationInteger>(hmm);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		
+		try {
+			double[] lnProbabilities = bc.lnProbabilities(sequences, executor);
+			int[][] stateSequences =
+				bc.mostLikelyStateSequences(sequences, executor);
+			
+			assertEquals(sequences.size(), lnProbabilities.length);
+			assertTrue(Arrays.equals(lnProbabilities,
+					bc.lnProbabilities(sequences)));
+			for (int i = 0; i < sequences.size(); i++) {
+				assertEquals(hmm.lnProbability(sequences.get(i)),
+						lnProbabilities[i], 0.);
+				assertTrue(Arrays.equals(
+						hmm.mostLikelyStateSequence(sequences.get(i)),
+						stateSequences[i]));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	public void testHmmBank()
+	{
+		List<OpdfInteger> codebook = Arrays.asList(
+				new OpdfInteger(new double[] { .71, .18, .11 }),
+				new OpdfInteger(new double[] { .09, .62, .29 }),
+				new OpdfInteger(new double[] { .33, .26, .41 }),
+				new OpdfInteger(new double[] { 0., .5, .5 }));
+		List<Hmm<ObservationInteger>> hmms =
+			new ArrayList<Hmm<ObservationInteger>>();
+		for (int h = 0; h < 6; h++)
+			hmms.add(new Hmm<ObservationInteger>(new double[] { .5, .5 },
+					new double[][] { { .9 - h * .1, .1 + h * .1 },
+							{ .2 + h * .05, .8 - h * .05 } },
+					Arrays.asList(codebook.get(h < 5 ? h % 3 : 3),
+							codebook.get(h < 5 ? (h + 1) % 3 : 3))));
+		
+		MarkovGenerator<ObservationInteger> mg =
+			new MarkovGenerator<ObservationInteger>(hmms.get(2));
+		List<ObservationInteger> sequence = mg.observationSequence(500);
+		sequence.set(0, new ObservationInteger(0));
+		
+		HmmBank<ObservationInteger> bank =
+			new HmmBank<ObservationInteger>(hmms);
+		assertEquals(4, bank.nbOpdfs());
+		
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			double[] lnProbabilities = bank.lnProbabilities(sequence, executor);
+			assertTrue(Arrays.equals(lnProbabilities,
+					bank.lnProbabilities(sequence, null)));
+			/* The last HMM cannot emit the first observation */
+			assertTrue(lnProbabilities[5] == Double.NEGATIVE_INFINITY);
+			for (int h = 0; h < 5; h++) {
+				double expected = hmms.get(h).lnProbability(sequence);
+				assertEquals(expected, lnProbabilities[h],
+						Math.abs(expected) * DELTA);
+			}
+			
+			int[] best = bank.mostLikely(sequence, 2, executor);
+			assertEquals(2, best.length);
+			assertTrue(lnProbabilities[best[0]] >= lnProbabilities[best[1]]);
+			for (int h = 0; h < hmms.size(); h++)
+				if (h != best[0] && h != best[1])
+					assertTrue(lnProbabilities[h] <= lnProbabilities[best[1]]);
+			
+			bank.setMargin(5.);
+			double[] pruned = bank.lnProbabilities(sequence, 2, executor);
+			assertEquals(lnProbabilities[best[0]], pruned[best[0]], 0.);
+			assertEquals(lnProbabilities[best[1]], pruned[best[1]], 0.);
+			assertTrue(Double.isNaN(pruned[5]));
+			assertTrue(Arrays.equals(best, bank.mostLikely(sequence, 2, null)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	/* The parameters are chosen so that two paths are never equally likely */
+	private Hmm<ObservationInteger> tieFreeHmm()
+	{
+		return new Hmm<ObservationInteger>(new double[] { .52, .31, .17 },
+				new double[][] { { .81, .13, .06 }, { .11, .67, .22 },
+						{ .23, .07, .7 } },
+				Arrays.asList(new OpdfInteger(new double[] { .71, .18, .11 }),
+						new OpdfInteger(new double[] { .09, .62, .29 }),
+						new OpdfInteger(new double[] { .33, .26, .41 })));
 	}
 	
 	
@@ -5,6 +5,8 @@
 
 package be.ac.ulg.montefiore.run.jahmm.test;
 
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 import be.ac.ulg.montefiore.run.distributions.GaussianDistribution;
 import be.ac.ulg.montefiore.run.distributions.RandomDistribution;
@@ -119,6 +121,160 @@ extends TestCase
 	}
 
 	
+	/*
+	 * Fitting a distribution to statistics accumulated in two halves and
+	 * then merged must give the same result as fitting it to the weighted
+	 * observations.
+	 */
+	public void testStatistics()
+	{
+		OpdfMultiGaussian omg = new OpdfMultiGaussian(new double[] { 2., 4. },
+				new double[][] { { 3., 2. }, { 2., 4. } });
+		
+		int n = 1000;
+		ObservationVector[] vectors = new ObservationVector[n];
+		ObservationReal[] reals = new ObservationReal[n];
+		double[] weights = new double[n];
+		double sum = 0.;
+		
+		for (int i = 0; i < n; i++) {
+			vectors[i] = omg.generate();
+			reals[i] = new ObservationReal(vectors[i].value(0));
+			sum += weights[i] = Math.random();
+		}
+		
+		OpdfMultiGaussian omg1 = new OpdfMultiGaussian(2);
+		OpdfMultiGaussian omg2 = new OpdfMultiGaussian(2);
+		OpdfStatistics<ObservationVector> sv1 = omg2.newStatistics();
+		OpdfStatistics<ObservationVector> sv2 = omg2.newStatistics();
+		
+		OpdfGaussian og1 = new OpdfGaussian();
+		OpdfGaussian og2 = new OpdfGaussian();
+		OpdfStatistics<ObservationReal> sg1 = og2.newStatistics();
+		OpdfStatistics<ObservationReal> sg2 = og2.newStatistics();
+		
+		OpdfGaussianMixture ogm1 = new OpdfGaussianMixture(2);
+		OpdfGaussianMixture ogm2 = new OpdfGaussianMixture(2);
+		OpdfStatistics<ObservationReal> sm1 = ogm2.newStatistics();
+		OpdfStatistics<ObservationReal> sm2 = ogm2.newStatistics();
+		
+		for (int i = 0; i < n; i++) {
+			sv1.accumulate(vectors[i], weights[i]);
+			sg1.accumulate(reals[i], weights[i]);
+			sm1.accumulate(reals[i], weights[i]);
+			
+			if (i == n / 2) {
+				sv2 = sv1; sv1 = omg2.newStatistics();
+				sg2 = sg1; sg1 = og2.newStatistics();
+				sm2 = sm1; sm1 = ogm2.newStatistics();
+			}
+			
+			weights[i] /= sum;
+		}
+		
+		sv2.merge(sv1);
+		sg2.merge(sg1);
+		sm2.merge(sm1);
+		
+		omg1.fit(vectors, weights);
+		omg2.fit(sv2);
+		og1.fit(reals, weights);
+		og2.fit(sg2);
+		ogm1.fit(reals, weights);
+		ogm2.fit(sm2);
+		
+		assertEquals(sum, sv2.weight(), 1e-9);
+		assertTrue(equalsArrays(omg1.mean(), omg2.mean(), 1e-9));
+		for (int i = 0; i < 2; i++)
+			assertTrue(equalsArrays(omg1.covariance()[i], 
+					omg2.covariance()[i], 1e-9));
+		
+		assertEquals(og1.mean(), og2.mean(), 1e-9);
+		assertEquals(og1.variance(), og2.variance(), 1e-9);
+		
+		assertTrue(equalsArrays(ogm1.proportions(), ogm2.proportions(), 1e-9));
+		assertTrue(equalsArrays(ogm1.means(), ogm2.means(), 1e-9));
+		assertTrue(equalsArrays(ogm1.variances(), ogm2.variances(), 1e-9));
+	}
+	
+	
+	public void testLnProbability()
+	{
+		OpdfGaussian og = new OpdfGaussian(2., 3.);
+		OpdfGaussianMixture ogm = new OpdfGaussianMixture(
+				new double[] { 0., 4. }, new double[] { 1., 2. },
+				new double[] { 1., 2. });
+		OpdfMultiGaussian omg = new OpdfMultiGaussian(new double[] { 2., 4. },
+				new double[][] { { 3., 2. }, { 2., 4. } });
+		
+		for (int i = 0; i < 10; i++) {
+			ObservationReal o = new ObservationReal(i - 3.);
+			ObservationVector v = new ObservationVector(
+					new double[] { i - 3., 8. - i });
+			
+			assertEquals(Math.log(og.probability(o)), og.lnProbability(o),
+					1e-9);
+			assertEquals(Math.log(ogm.probability(o)), ogm.lnProbability(o),
+					1e-9);
+			assertEquals(Math.log(omg.probability(v)), omg.lnProbability(v),
+					1e-9);
+		}
+		
+		/* The density underflows, but not its logarithm */
+		int dimension = 400;
+		double[][] covariance = new double[dimension][dimension];
+		for (int i = 0; i < dimension; i++)
+			covariance[i][i] = 1.;
+		
+		OpdfMultiGaussian omgHigh = 
+			new OpdfMultiGaussian(new double[dimension], covariance);
+		double[] value = new double[dimension];
+		Arrays.fill(value, 2.);
+		ObservationVector v = new ObservationVector(value);
+		
+		assertEquals(0., omgHigh.probability(v));
+		assertEquals(-.5 * dimension * (Math.log(2. * Math.PI) + 4.),
+				omgHigh.lnProbability(v), 1e-9);
+	}
+	
+	
+	/*
+	 * The lazily computed decomposition of the covariance matrix must be
+	 * usable by concurrent readers.
+	 */
+	public void testMultiGaussianConcurrentProbability()
+	throws InterruptedException
+	{
+		double[] mean = { 2., 4. };
+		double[][] covariance = { { 3., 2. }, { 2., 4. } };
+		final ObservationVector o = 
+			new ObservationVector(new double[] { 1., 5. });
+		final double expected = 
+			new OpdfMultiGaussian(mean, covariance).probability(o);
+		
+		final OpdfMultiGaussian omg = new OpdfMultiGaussian(mean, covariance);
+		final boolean[] failed = new boolean[1];
+		Thread[] threads = new Thread[4];
+		
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run()
+				{
+					for (int j = 0; j < 1000; j++)
+						if (omg.probability(o) != expected)
+							failed[0] = true;
+				}
+			};
+			threads[i].start();
+		}
+		
+		for (Thread thread : threads)
+			thread.join();
+		
+		assertFalse(failed[0]);
+	}
+	
+	
 	static String toString(double[] a)
 	{
 		String s = "[ ";
@@ -5,11 +5,14 @@
 
 package be.ac.ulg.montefiore.run.jahmm.test;
 
+import java.io.*;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import junit.framework.TestCase;
 import be.ac.ulg.montefiore.run.jahmm.*;
+import be.ac.ulg.montefiore.run.jahmm.io.*;
 import be.ac.ulg.montefiore.run.jahmm.learn.*;
 import be.ac.ulg.montefiore.run.jahmm.toolbox.KullbackLeiblerDistanceCalculator;
 import be.ac.ulg.montefiore.run.jahmm.toolbox.MarkovGenerator;
@@ -57,6 +60,329 @@ extends TestCase
 		bwHmm = bwsl.learn(hmm, sequences);
 
 		assertEquals(0., klc.distance(bwHmm, hmm), DELTA);
+		
+		/* Model sequences using the checkpointed BW algorithm */
+		
+		bwsl.setCheckpointed(true);
+		bwHmm = bwsl.learn(hmm, sequences);
+		
+		assertEquals(0., klc.distance(bwHmm, hmm), DELTA);
+		
+		/* Model sequences using the log-domain BW algorithm */
+		
+		BaumWelchLogLearner bwll = new BaumWelchLogLearner();
+		bwHmm = bwll.learn(hmm, sequences);
+		
+		assertEquals(0., klc.distance(bwHmm, hmm), DELTA);
+	}
+	
+	
+	public void testBaumWelchThreads()
+	{
+		BaumWelchScaledLearner bwsl = new BaumWelchScaledLearner();
+		bwsl.setNbIterations(2);
+		Hmm<ObservationInteger> bwHmm = bwsl.learn(hmm, sequences);
+		
+		bwsl.setNbThreads(4);
+		Hmm<ObservationInteger> parallelBwHmm = bwsl.learn(hmm, sequences);
+		
+		for (int i = 0; i < hmm.nbStates(); i++) {
+			assertEquals(bwHmm.getPi(i), parallelBwHmm.getPi(i), 0.);
+			
+			for (int j = 0; j < hmm.nbStates(); j++)
+				assertEquals(bwHmm.getAij(i, j), parallelBwHmm.getAij(i, j),
+						0.);
+		}
+	}
+	
+	
+	public void testSequencesFile()
+	throws IOException
+	{
+		File file = File.createTempFile("jahmm", ".seq");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"ISO-8859-1");
+		ObservationSequencesWriter.write(writer,
+				new ObservationIntegerWriter(), sequences);
+		writer.close();
+		
+		ObservationSequencesFile<ObservationInteger> fileSequences =
+			new ObservationSequencesFile<ObservationInteger>(file,
+					"ISO-8859-1", new ObservationIntegerReader());
+		
+		for (int k = 0; k < 2; k++) { // The file can be read several times
+			int i = 0;
+			for (List<ObservationInteger> sequence : fileSequences) {
+				List<ObservationInteger> expected = sequences.get(i++);
+				
+				assertEquals(expected.size(), sequence.size());
+				for (int t = 0; t < sequence.size(); t++)
+					assertEquals(expected.get(t).value, sequence.get(t).value);
+			}
+			assertEquals(sequences.size(), i);
+		}
+		
+		Iterator<List<ObservationInteger>> iterator = fileSequences.iterator();
+		iterator.next();
+		((Closeable) iterator).close(); // Stops reading early
+		assertFalse(iterator.hasNext());
+		
+		BaumWelchScaledLearner bwsl = new BaumWelchScaledLearner();
+		bwsl.setNbIterations(2);
+		bwsl.setNbThreads(2);
+		Hmm<ObservationInteger> bwHmm = bwsl.learn(hmm, sequences);
+		Hmm<ObservationInteger> fileBwHmm = bwsl.learn(hmm, fileSequences);
+		
+		for (int i = 0; i < hmm.nbStates(); i++) {
+			assertEquals(bwHmm.getPi(i), fileBwHmm.getPi(i), 0.);
+			
+			for (int j = 0; j < hmm.nbStates(); j++)
+				assertEquals(bwHmm.getAij(i, j), fileBwHmm.getAij(i, j), 0.);
+		}
+	}
+	
+	
+	public void testStatistics()
+	throws IOException, ClassNotFoundException
+	{
+		BaumWelchScaledLearner bwsl = new BaumWelchScaledLearner();
+		int half = sequences.size() / 2;
+		BaumWelchStatistics<ObservationInteger> statistics =
+			bwsl.estimate(hmm, sequences.subList(0, half));
+		BaumWelchStatistics<ObservationInteger> otherStatistics =
+			bwsl.estimate(hmm, sequences.subList(half, sequences.size()));
+		
+		/* The statistics of the second half go through serialization */
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(otherStatistics);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray()));
+		@SuppressWarnings("unchecked")
+		BaumWelchStatistics<ObservationInteger> readStatistics =
+			(BaumWelchStatistics<ObservationInteger>) ois.readObject();
+		
+		statistics.merge(readStatistics);
+		assertEquals(sequences.size(), statistics.nbSequences());
+		
+		double lnProbability = 0.;
+		for (List<ObservationInteger> sequence : sequences)
+			lnProbability += hmm.lnProbability(sequence);
+		assertEquals(lnProbability, statistics.lnProbability(), 1e-8);
+		
+		Hmm<ObservationInteger> mergedHmm = bwsl.maximize(hmm, statistics);
+		Hmm<ObservationInteger> bwHmm = bwsl.iterate(hmm, sequences);
+		
+		for (int i = 0; i < hmm.nbStates(); i++) {
+			assertEquals(bwHmm.getPi(i), mergedHmm.getPi(i), 1e-12);
+			
+			for (int j = 0; j < hmm.nbStates(); j++)
+				assertEquals(bwHmm.getAij(i, j), mergedHmm.getAij(i, j), 1e-12);
+			for (int v = 0; v < 10; v++)
+				assertEquals(bwHmm.getOpdf(i).probability(
+						new ObservationInteger(v)), mergedHmm.getOpdf(i).
+						probability(new ObservationInteger(v)), 1e-12);
+		}
+	}
+	
+	
+	public void testConvergence()
+	{
+		Hmm<ObservationInteger> initialHmm =
+			new KMeansLearner<ObservationInteger>(3,
+					new OpdfIntegerFactory(10), sequences).learn();
+		final List<Double> lnProbabilities = new ArrayList<Double>();
+		
+		BaumWelchScaledLearner bwsl = new BaumWelchScaledLearner();
+		bwsl.setNbIterations(200);
+		bwsl.setConvergenceThreshold(1e-3);
+		bwsl.setListener(new BaumWelchListener() {
+			public void iteration(int iteration, double lnProbability,
+					long expectationTime, long maximizationTime,
+					long totalTime)
+			{
+				assertEquals(lnProbabilities.size(), iteration);
+				assertTrue(expectationTime + maximizationTime <= totalTime);
+				lnProbabilities.add(lnProbability);
+			}
+		});
+		bwsl.learn(initialHmm, sequences);
+		
+		double lnProbability = 0.;
+		for (List<ObservationInteger> sequence : sequences)
+			lnProbability += initialHmm.lnProbability(sequence);
+		assertEquals(lnProbability, lnProbabilities.get(0), 1e-8);
+		
+		int last = lnProbabilities.size() - 1;
+		assertTrue(last > 0 && last < 199);
+		for (int i = 1; i <= last; i++)
+			assertTrue(lnProbabilities.get(i) >=
+				lnProbabilities.get(i - 1) - 1e-8);
+		assertTrue(lnProbabilities.get(last) -
+				lnProbabilities.get(last - 1) < 1e-3);
+	}
+	
+	
+	public void testOnline()
+	{
+		Hmm<ObservationInteger> initialHmm =
+			new KMeansLearner<ObservationInteger>(3,
+					new OpdfIntegerFactory(10), sequences).learn();
+		BaumWelchScaledLearner bwsl = new BaumWelchScaledLearner();
+		
+		/* A single batch gives one iteration of the Baum-Welch algorithm */
+		BaumWelchOnlineLearner<ObservationInteger> bwol =
+			new BaumWelchOnlineLearner<ObservationInteger>(initialHmm, bwsl);
+		Hmm<ObservationInteger> onlineHmm = bwol.update(sequences);
+		Hmm<ObservationInteger> bwHmm = bwsl.iterate(initialHmm, sequences);
+		for (int i = 0; i < hmm.nbStates(); i++)
+			for (int j = 0; j < hmm.nbStates(); j++)
+				assertEquals(bwHmm.getAij(i, j), onlineHmm.getAij(i, j), 0.);
+		
+		/* Updates given small batches; the probabilities of the initial HMM
+		 are not null, so that no observation is given a null probability */
+		initialHmm = nonNullHmm();
+		
+		bwol = new BaumWelchOnlineLearner<ObservationInteger>(initialHmm);
+		bwol.setStepSizeExponent(.7);
+		for (int i = 0; i < sequences.size(); i += 10)
+			bwol.update(sequences.subList(i, i + 10));
+		assertEquals(sequences.size() / 10, bwol.nbUpdates());
+		
+		double initialLnProbability = 0.;
+		double lnProbability = 0.;
+		for (List<ObservationInteger> sequence : sequences) {
+			initialLnProbability += initialHmm.lnProbability(sequence);
+			lnProbability += bwol.hmm().lnProbability(sequence);
+		}
+		assertTrue(lnProbability > initialLnProbability);
+	}
+	
+	
+	public void testViterbiLearner()
+	{
+		Hmm<ObservationInteger> initialHmm = nonNullHmm();
+		ViterbiLearner vl = new ViterbiLearner();
+		
+		/* The probability of the most likely state sequences never
+		 decreases */
+		Hmm<ObservationInteger> vlHmm = initialHmm;
+		double previousLnProbability = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < 5; k++) {
+			double lnProbability = 0.;
+			for (List<ObservationInteger> sequence : sequences)
+				lnProbability +=
+					new ViterbiCalculator(sequence, vlHmm).lnProbability();
+			assertTrue(lnProbability >= previousLnProbability - 1e-8);
+			
+			previousLnProbability = lnProbability;
+			vlHmm = vl.iterate(vlHmm, sequences);
+		}
+		
+		/* The learnt HMM is a fix point that does not depend on the number
+		 of threads */
+		vl.setNbIterations(100);
+		vlHmm = vl.learn(initialHmm, sequences);
+		vl.setNbThreads(4);
+		Hmm<ObservationInteger> parallelVlHmm = vl.learn(initialHmm, sequences);
+		Hmm<ObservationInteger> nextVlHmm = vl.iterate(vlHmm, sequences);
+		
+		for (int i = 0; i < hmm.nbStates(); i++) {
+			assertEquals(vlHmm.getPi(i), parallelVlHmm.getPi(i), 0.);
+			assertEquals(vlHmm.getPi(i), nextVlHmm.getPi(i), 0.);
+			
+			for (int j = 0; j < hmm.nbStates(); j++) {
+				assertEquals(vlHmm.getAij(i, j), parallelVlHmm.getAij(i, j),
+						0.);
+				assertEquals(vlHmm.getAij(i, j), nextVlHmm.getAij(i, j), 0.);
+			}
+		}
+	}
+	
+	
+	public void testSparse()
+	{
+		double[][] a = { { .7, .2, .1, 0. }, { 0., .6, .3, .1 },
+				{ 0., 0., .8, .2 }, { 0., 0., 0., 1. } };
+		List<OpdfInteger> opdfs = new ArrayList<OpdfInteger>();
+		opdfs.add(new OpdfInteger(new double[] { .6, .3, .1 }));
+		opdfs.add(new OpdfInteger(new double[] { .2, .5, .3 }));
+		opdfs.add(new OpdfInteger(new double[] { .1, .2, .7 }));
+		opdfs.add(new OpdfInteger(new double[] { .3, .3, .4 }));
+		double[] pi = { .9, .1, 0., 0. };
+		
+		Hmm<ObservationInteger> sparseHmm =
+			new Hmm<ObservationInteger>(pi, a, opdfs, true);
+		Hmm<ObservationInteger> denseHmm =
+			new Hmm<ObservationInteger>(pi, a, opdfs);
+		assertTrue(sparseHmm.isSparse());
+		assertEquals(3, sparseHmm.nbSuccessors(1));
+		assertEquals(2, sparseHmm.successor(1, 1));
+		
+		Hmm<ObservationInteger> rowsHmm = new Hmm<ObservationInteger>(pi,
+				new int[] { 0, 3, 6, 8, 9 },
+				new int[] { 0, 1, 2, 1, 2, 3, 2, 3, 3 },
+				new double[] { .7, .2, .1, .6, .3, .1, .8, .2, 1. }, opdfs);
+		assertTrue(rowsHmm.isSparse());
+		for (int i = 0; i < a.length; i++)
+			for (int j = 0; j < a.length; j++)
+				assertEquals(a[i][j], rowsHmm.getAij(i, j), 0.);
+		
+		MarkovGenerator<ObservationInteger> mg =
+			new MarkovGenerator<ObservationInteger>(sparseHmm);
+		List<List<ObservationInteger>> sequences = 
+			new ArrayList<List<ObservationInteger>>();
+		for (int i = 0; i < 20; i++)
+			sequences.add(mg.observationSequence(30));
+		
+		List<ObservationInteger> sequence = sequences.get(0);
+		assertEquals(denseHmm.lnProbability(sequence),
+				sparseHmm.lnProbability(sequence), 1e-10);
+		assertEquals(denseHmm.probability(sequence),
+				sparseHmm.probability(sequence), 1e-20);
+		ViterbiCalculator vc = new ViterbiCalculator(sequence, sparseHmm);
+		assertEquals(new ViterbiCalculator(sequence, denseHmm).lnProbability(),
+				vc.lnProbability(), 1e-10);
+		assertEquals(vc.lnProbability(), Math.log(sparseHmm.probability(
+				sequence, vc.stateSequence())), 1e-10);
+		
+		BaumWelchLearner[] learners = { new BaumWelchLearner(),
+				new BaumWelchScaledLearner(), new BaumWelchScaledLearner(),
+				new BaumWelchLogLearner() };
+		((BaumWelchScaledLearner) learners[2]).setCheckpointed(true);
+		
+		for (BaumWelchLearner bwl : learners) {
+			Hmm<ObservationInteger> sparseBwHmm = 
+				bwl.iterate(sparseHmm, sequences);
+			Hmm<ObservationInteger> denseBwHmm = 
+				bwl.iterate(denseHmm, sequences);
+			
+			assertTrue(sparseBwHmm.isSparse());
+			for (int i = 0; i < a.length; i++)
+				for (int j = 0; j < a.length; j++)
+					assertEquals(denseBwHmm.getAij(i, j), 
+							sparseBwHmm.getAij(i, j), 1e-10);
+		}
+	}
+	
+	
+	/* A 3 states HMM whose probabilities are not null */
+	private Hmm<ObservationInteger> nonNullHmm()
+	{
+		double[][] a = { { .5, .3, .2 }, { .2, .5, .3 }, { .3, .2, .5 } };
+		List<OpdfInteger> opdfs = new ArrayList<OpdfInteger>();
+		
+		for (int i = 0; i < 3; i++) {
+			double[] probabilities = new double[10];
+			for (int v = 0; v < 10; v++)
+				probabilities[v] = (1. + (v + 3 * i) % 10) / 55.;
+			opdfs.add(new OpdfInteger(probabilities));
+		}
+		
+		return new Hmm<ObservationInteger>(new double[] { .4, .3, .3 }, a,
+				opdfs);
 	}
 	
 	